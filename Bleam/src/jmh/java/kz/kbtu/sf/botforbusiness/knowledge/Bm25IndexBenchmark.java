@@ -0,0 +1,88 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index build and query latency of {@link Bm25Index} over a synthetic tenant
+ * knowledge base of {@code chunks} chunks, drawn from a Zipf-like vocabulary
+ * so some terms are common and most are rare, as in real price lists and FAQs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Bm25IndexBenchmark {
+
+    private static final String[] STEMS = {
+            "доставк", "оплат", "заказ", "цен", "скидк", "возврат", "гаранти", "курьер", "самовывоз", "адрес",
+            "кофе", "чай", "десерт", "завтрак", "обед", "меню", "столик", "бронировани", "карт", "наличн",
+            "тапсырыс", "жеткізу", "бағасы", "төлем", "мекенжай"};
+    private static final String[] ENDINGS = {"а", "и", "у", "ой", "ами", "ах", "", "ы", "лар", "ға"};
+
+    @Param({"100", "1000", "10000"})
+    public int chunks;
+
+    private List<Map<String, Integer>> documents;
+    private Bm25Index index;
+    private List<List<String>> queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<String> vocabulary = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            vocabulary.add(STEMS[i % STEMS.length] + (i / STEMS.length) + ENDINGS[random.nextInt(ENDINGS.length)]);
+        }
+
+        documents = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            documents.add(KnowledgeTokenizer.termFrequencies(text(random, vocabulary, 40 + random.nextInt(80))));
+        }
+        index = new Bm25Index(documents);
+
+        queries = new ArrayList<>();
+        for (int q = 0; q < 256; q++) {
+            queries.add(KnowledgeTokenizer.tokens(text(random, vocabulary, 3 + random.nextInt(8))));
+        }
+    }
+
+    private static String text(Random random, List<String> vocabulary, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            // squaring skews the draw towards the head of the vocabulary
+            double u = random.nextDouble();
+            text.append(vocabulary.get((int) (u * u * vocabulary.size()))).append(' ');
+        }
+        return text.toString();
+    }
+
+    @Benchmark
+    public Bm25Index build() {
+        return new Bm25Index(documents);
+    }
+
+    @Benchmark
+    public List<Integer> query() {
+        List<String> query = queries.get(next++ & 255);
+        return index.search(query, 5);
+    }
+}
@@ -0,0 +1,139 @@
+package kz.kbtu.sf.botforbusiness.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message inserts per second on PostgreSQL, before and after the switch to
+ * sequence ids: with IDENTITY every row is its own {@code INSERT ... RETURNING}
+ * round trip, with a pooled sequence Hibernate takes 50 ids in one call and
+ * sends the rows as one rewritten batch. Both run on the JDBC statements
+ * Hibernate issues for {@code messages}, against scratch copies of the table.
+ * <p>
+ * Needs a database, taken from {@code -Dbench.db.url}, {@code .user} and
+ * {@code .password} or else from {@code DB_URL}, {@code DB_USERNAME} and
+ * {@code DB_PASSWORD} like the application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageInsertBenchmark {
+
+    // equal to hibernate.jdbc.batch_size and the sequence allocationSize
+    private static final int BATCH = 50;
+
+    private static final String COLUMNS = "session_id, sender, text, timestamp, client_id";
+
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", setting("bench.db.user", "DB_USERNAME"));
+        properties.setProperty("password", setting("bench.db.password", "DB_PASSWORD"));
+        properties.setProperty("reWriteBatchedInserts", "true");
+        connection = DriverManager.getConnection(setting("bench.db.url", "DB_URL"), properties);
+
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute("DROP TABLE IF EXISTS bench_messages_identity, bench_messages_sequence");
+            ddl.execute("DROP SEQUENCE IF EXISTS bench_messages_seq");
+            ddl.execute("CREATE TABLE bench_messages_identity (id BIGSERIAL PRIMARY KEY, session_id BIGINT, "
+                    + "sender VARCHAR(255), text TEXT, timestamp TIMESTAMP(6), client_id VARCHAR(36) UNIQUE)");
+            ddl.execute("CREATE TABLE bench_messages_sequence (id BIGINT PRIMARY KEY, session_id BIGINT, "
+                    + "sender VARCHAR(255), text TEXT, timestamp TIMESTAMP(6), client_id VARCHAR(36) UNIQUE)");
+            ddl.execute("CREATE SEQUENCE bench_messages_seq INCREMENT BY " + BATCH);
+        }
+        connection.setAutoCommit(false);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute("DROP TABLE IF EXISTS bench_messages_identity, bench_messages_sequence");
+            ddl.execute("DROP SEQUENCE IF EXISTS bench_messages_seq");
+        }
+        connection.close();
+    }
+
+    private static String setting(String property, String env) {
+        String value = System.getProperty(property, System.getenv(env));
+        if (value == null) throw new IllegalStateException("Set -D" + property + " or " + env);
+        return value;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long identityRowByRow() throws SQLException {
+        long lastId = 0;
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO bench_messages_identity (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?)", new String[]{"id"})) {
+            for (int i = 0; i < BATCH; i++) {
+                bind(insert);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                    lastId = keys.getLong(1);
+                }
+            }
+        }
+        connection.commit();
+        return lastId;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int[] sequenceBatched() throws SQLException {
+        long firstId;
+        try (Statement nextval = connection.createStatement();
+             ResultSet rs = nextval.executeQuery("SELECT nextval('bench_messages_seq')")) {
+            rs.next();
+            firstId = rs.getLong(1);
+        }
+
+        int[] counts;
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO bench_messages_sequence (" + COLUMNS + ", id) VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < BATCH; i++) {
+                bind(insert);
+                insert.setLong(6, firstId + i);
+                insert.addBatch();
+            }
+            counts = insert.executeBatch();
+        }
+        connection.commit();
+        return counts;
+    }
+
+    private static void bind(PreparedStatement insert) throws SQLException {
+        insert.setLong(1, 1L);
+        insert.setString(2, "USER");
+        insert.setString(3, "Здравствуйте, сколько стоит доставка в Алматы?");
+        insert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+        insert.setString(5, UUID.randomUUID().toString());
+    }
+}
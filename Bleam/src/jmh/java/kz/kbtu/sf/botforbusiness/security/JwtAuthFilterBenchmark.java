@@ -0,0 +1,78 @@
+package kz.kbtu.sf.botforbusiness.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second through {@link JwtAuthFilter}, for user and service
+ * tokens, with the verified-token cache on and off ({@code cacheEntries=0}),
+ * which is the price of a full signature check on every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JwtAuthFilterBenchmark {
+
+    @Param({"10000", "0"})
+    public long cacheEntries;
+
+    @Param({"user", "service"})
+    public String tokenType;
+
+    private JwtAuthFilter filter;
+    private String authorization;
+
+    @Setup
+    public void setUp() {
+        JwtUtil jwtUtil = new JwtUtil(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(jwtUtil, "jwtUserSecret", "user-secret-".repeat(4));
+        ReflectionTestUtils.setField(jwtUtil, "jwtServiceSecret", "service-secret-".repeat(4));
+        ReflectionTestUtils.setField(jwtUtil, "jwtUserExpirationMs", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(jwtUtil, "jwtServiceExpirationMs", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(jwtUtil, "verifiedCacheMaxEntries", cacheEntries);
+        ReflectionTestUtils.setField(jwtUtil, "verifiedCacheMaxTtlMs", TimeUnit.MINUTES.toMillis(5));
+        jwtUtil.init();
+
+        filter = new JwtAuthFilter(jwtUtil);
+        String token = "service".equals(tokenType)
+                ? jwtUtil.generateServiceToken("spring-service")
+                : jwtUtil.generateToken(42L, "USER");
+        authorization = "Bearer " + token;
+    }
+
+    @Benchmark
+    public Authentication filterRequest() throws Exception {
+        // a fresh request each time, since OncePerRequestFilter marks the ones it has seen
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/sessions");
+        request.addHeader("Authorization", authorization);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        if (authentication == null) throw new IllegalStateException("token was not accepted");
+        return authentication;
+    }
+}
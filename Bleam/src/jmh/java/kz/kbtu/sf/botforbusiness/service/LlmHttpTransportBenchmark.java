@@ -0,0 +1,120 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call latency of a completion request through {@link LlmHttpTransport},
+ * whose pooled client keeps connections alive, against opening a new connection
+ * for every call and against the plain {@code RestTemplate} the services used
+ * before. The provider is a local server answering with a canned completion, so
+ * the numbers isolate the client side; over TLS to a real provider the saved
+ * handshakes are worth considerably more than on loopback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(8)
+public class LlmHttpTransportBenchmark {
+
+    private static final byte[] COMPLETION =
+            "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"Доставка бесплатная.\"},\"finish_reason\":\"stop\"}]}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    private static final Map<String, Object> BODY = Map.of(
+            "model", "gpt-4o-mini",
+            "messages", new Object[]{Map.of("role", "user", "content", "Сколько стоит доставка?")});
+
+    private HttpServer server;
+    private String url;
+    private LlmHttpTransport transport;
+    private RestTemplate restTemplate;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setUp() throws IOException {
+        // without it the stub server's split header and body writes stall on delayed ACKs of kept-alive connections
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/v1/chat/completions", exchange -> {
+            try (InputStream in = exchange.getRequestBody(); OutputStream out = exchange.getResponseBody()) {
+                in.readAllBytes();
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, COMPLETION.length);
+                out.write(COMPLETION);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+
+        objectMapper = new ObjectMapper();
+        transport = new LlmHttpTransport(objectMapper, new SimpleMeterRegistry(), 5_000, 60_000, 120_000, 30_000);
+        restTemplate = new RestTemplate();
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.stop();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public Map<String, Object> pooledTransport() {
+        return transport.postJson("bench", url, Map.of("Authorization", "Bearer test"), BODY);
+    }
+
+    @Benchmark
+    public String newConnectionPerCall() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer test")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(BODY)))
+                .build();
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()) {
+            return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        }
+    }
+
+    @Benchmark
+    public Map<?, ?> restTemplate() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth("test");
+        return restTemplate.postForObject(url, new HttpEntity<>(BODY, headers), Map.class);
+    }
+}
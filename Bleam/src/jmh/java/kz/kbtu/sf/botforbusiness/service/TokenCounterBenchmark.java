@@ -0,0 +1,65 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenization throughput of the o200k BPE counter on a typical prompt-sized
+ * text, next to the per-script estimate it replaces. The vocabulary comes from
+ * the classpath when built with {@code -Pbundle-tokenizer}, otherwise from the
+ * same download cache the application uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenCounterBenchmark {
+
+    private static final Map<String, String> SAMPLES = Map.of(
+            "ru", "Здравствуйте! Доставка по Алматы бесплатная при заказе от 10 000 тенге, в остальных случаях 1 500 тенге. "
+                    + "Курьер привезёт заказ в течение двух часов, оплатить можно картой или наличными при получении. ",
+            "kk", "Сәлеметсіз бе! Алматы бойынша жеткізу 10 000 теңгеден асатын тапсырыстар үшін тегін, басқа жағдайда 1 500 теңге. "
+                    + "Курьер тапсырысты екі сағат ішінде жеткізеді, төлемді картамен немесе қолма-қол жасауға болады. ",
+            "en", "Hello! Delivery within Almaty is free for orders over 10,000 tenge, otherwise it costs 1,500 tenge. "
+                    + "The courier brings the order within two hours; you can pay by card or in cash on delivery. ");
+
+    @Param({"ru", "kk", "en"})
+    public String language;
+
+    private TokenCounter counter;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        counter = new TokenCounter(new ClassPathResource("tokenizer/o200k_base.tiktoken"), "o200k_base", true,
+                true, Path.of(System.getProperty("java.io.tmpdir"), "bleam-tokenizer").toString(), 30_000);
+        // about 4 KB, the size of a knowledge block plus a few turns
+        text = SAMPLES.get(language).repeat(16);
+    }
+
+    @Benchmark
+    public int bpe() {
+        return counter.count(text);
+    }
+
+    @Benchmark
+    public int estimate() {
+        return TokenCounter.estimate(text);
+    }
+}
@@ -0,0 +1,52 @@
+package kz.kbtu.sf.botforbusiness.controller;
+
+import kz.kbtu.sf.botforbusiness.dto.DeadLetterEntry;
+import kz.kbtu.sf.botforbusiness.dto.DeadLetterRequest;
+import kz.kbtu.sf.botforbusiness.redis.DeadLetterService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@PreAuthorize("hasRole('ADMIN')")
+@RestController
+@RequestMapping("/api/admin/dlq")
+public class DeadLetterController {
+
+    private static final int DEFAULT_BATCH = 100;
+
+    private final DeadLetterService deadLetterService;
+
+    public DeadLetterController(DeadLetterService deadLetterService) {
+        this.deadLetterService = deadLetterService;
+    }
+
+    @GetMapping("/{stream}")
+    public List<DeadLetterEntry> list(@PathVariable String stream,
+                                      @RequestParam(required = false) String after,
+                                      @RequestParam(defaultValue = "50") int count) {
+        return deadLetterService.list(stream, after, count);
+    }
+
+    @PostMapping("/{stream}/replay")
+    public ResponseEntity<Map<String, Integer>> replay(@PathVariable String stream, @RequestBody(required = false) DeadLetterRequest request) {
+        int replayed = deadLetterService.replay(stream, ids(request), count(request));
+        return ResponseEntity.ok(Map.of("replayed", replayed));
+    }
+
+    @PostMapping("/{stream}/purge")
+    public ResponseEntity<Map<String, Integer>> purge(@PathVariable String stream, @RequestBody(required = false) DeadLetterRequest request) {
+        int purged = deadLetterService.purge(stream, ids(request), count(request));
+        return ResponseEntity.ok(Map.of("purged", purged));
+    }
+
+    private List<String> ids(DeadLetterRequest request) {
+        return request == null ? null : request.getIds();
+    }
+
+    private int count(DeadLetterRequest request) {
+        return request == null || request.getCount() == null ? DEFAULT_BATCH : request.getCount();
+    }
+}
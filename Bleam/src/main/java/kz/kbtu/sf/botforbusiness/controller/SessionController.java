@@ -1,17 +1,24 @@
 package kz.kbtu.sf.botforbusiness.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.kbtu.sf.botforbusiness.dto.MessagePage;
 import kz.kbtu.sf.botforbusiness.dto.PlatformDTO;
-import kz.kbtu.sf.botforbusiness.model.Message;
 import kz.kbtu.sf.botforbusiness.model.PlatformType;
 import kz.kbtu.sf.botforbusiness.model.Session;
 import kz.kbtu.sf.botforbusiness.service.MessageService;
 import kz.kbtu.sf.botforbusiness.service.PlatformServiceFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
@@ -20,12 +27,16 @@ import java.util.Objects;
 @RequestMapping("/api/sessions")
 public class SessionController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final PlatformServiceFactory platformServiceFactory;
     private final MessageService messageService;
+    private final ObjectMapper objectMapper;
 
-    public SessionController(PlatformServiceFactory platformServiceFactory, MessageService messageService) {
+    public SessionController(PlatformServiceFactory platformServiceFactory, MessageService messageService, ObjectMapper objectMapper) {
         this.platformServiceFactory = platformServiceFactory;
         this.messageService = messageService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping
@@ -44,8 +55,27 @@ public class SessionController {
     }
 
     @GetMapping("/{sessionId}/messages")
-    public List<Message> getSessionMessages(@PathVariable Long sessionId) {
-        return messageService.getMessagesForSession(sessionId);
+    public MessagePage getSessionMessages(@PathVariable Long sessionId,
+                                          @RequestParam(required = false) Long before,
+                                          @RequestParam(required = false) Long after,
+                                          @RequestParam(defaultValue = "50") int limit) {
+        return messageService.getMessagePage(getCurrentUserId(), sessionId, before, after, limit);
+    }
+
+    @GetMapping("/{sessionId}/messages/export")
+    public ResponseEntity<StreamingResponseBody> exportSessionMessages(@PathVariable Long sessionId) {
+        Long userId = getCurrentUserId();
+        // checked before the body is built: once streaming starts the 200 is already committed
+        messageService.requireOwnedSession(userId, sessionId);
+        StreamingResponseBody body = out -> messageService.streamMessages(userId, sessionId, message -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(message));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
     }
 
     private Long getCurrentUserId() {
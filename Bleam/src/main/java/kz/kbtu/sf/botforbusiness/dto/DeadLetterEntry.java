@@ -0,0 +1,13 @@
+package kz.kbtu.sf.botforbusiness.dto;
+
+import java.util.Map;
+
+public record DeadLetterEntry(
+        String id,
+        String originalStream,
+        String originalId,
+        long attempts,
+        String error,
+        long failedAt,
+        Map<String, String> fields
+) {}
@@ -0,0 +1,14 @@
+package kz.kbtu.sf.botforbusiness.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class DeadLetterRequest {
+
+    private List<String> ids;
+    private Integer count;
+}
@@ -0,0 +1,19 @@
+package kz.kbtu.sf.botforbusiness.dto;
+
+import kz.kbtu.sf.botforbusiness.model.SenderType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageDTO {
+
+    private Long id;
+    private String text;
+    private SenderType sender;
+    private LocalDateTime timestamp;
+}
@@ -0,0 +1,23 @@
+package kz.kbtu.sf.botforbusiness.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of a session's messages, oldest first. {@code before} and
+ * {@code after} are the cursors for the older and newer neighbouring pages;
+ * {@code hasMore} tells whether the requested direction has more messages.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessagePage {
+
+    private List<MessageDTO> messages;
+    private Long before;
+    private Long after;
+    private boolean hasMore;
+}
@@ -0,0 +1,110 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Inverted index over knowledge chunks scored with Okapi BM25. Postings are
+ * plain {@code int} arrays (chunk ids and term frequencies side by side), so
+ * a query is a few array scans with no boxing. Immutable once built.
+ */
+final class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Map<String, Integer> termIds;
+    private final int[][] postingDocs;
+    private final int[][] postingFreqs;
+    private final int[] docLengths;
+    private final double avgDocLength;
+
+    /**
+     * @param documents term frequencies of each chunk, see {@link KnowledgeTokenizer#termFrequencies}
+     */
+    Bm25Index(List<Map<String, Integer>> documents) {
+        int docCount = documents.size();
+        this.docLengths = new int[docCount];
+        this.termIds = new HashMap<>();
+
+        int[] docFrequency = new int[16];
+        long totalLength = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            for (Map.Entry<String, Integer> term : documents.get(doc).entrySet()) {
+                int id = termIds.computeIfAbsent(term.getKey(), t -> termIds.size());
+                if (id >= docFrequency.length) docFrequency = Arrays.copyOf(docFrequency, id * 2);
+                docFrequency[id]++;
+                docLengths[doc] += term.getValue();
+            }
+            totalLength += docLengths[doc];
+        }
+        this.avgDocLength = docCount == 0 ? 0 : (double) totalLength / docCount;
+
+        this.postingDocs = new int[termIds.size()][];
+        this.postingFreqs = new int[termIds.size()][];
+        for (int id = 0; id < termIds.size(); id++) {
+            postingDocs[id] = new int[docFrequency[id]];
+            postingFreqs[id] = new int[docFrequency[id]];
+        }
+
+        int[] fill = new int[termIds.size()];
+        for (int doc = 0; doc < docCount; doc++) {
+            for (Map.Entry<String, Integer> term : documents.get(doc).entrySet()) {
+                int id = termIds.get(term.getKey());
+                postingDocs[id][fill[id]] = doc;
+                postingFreqs[id][fill[id]] = term.getValue();
+                fill[id]++;
+            }
+        }
+    }
+
+    int size() {
+        return docLengths.length;
+    }
+
+    /**
+     * Returns the ids of up to {@code k} best matching chunks, best first. Chunks
+     * sharing no term with the query are never returned.
+     */
+    List<Integer> search(List<String> queryTokens, int k) {
+        int docCount = docLengths.length;
+        if (docCount == 0 || k <= 0) return List.of();
+
+        double[] scores = new double[docCount];
+        boolean matched = false;
+        for (String token : new LinkedHashSet<>(queryTokens)) {
+            Integer id = termIds.get(token);
+            if (id == null) continue;
+            matched = true;
+
+            int[] docs = postingDocs[id];
+            int[] freqs = postingFreqs[id];
+            double idf = Math.log(1 + (docCount - docs.length + 0.5) / (docs.length + 0.5));
+            for (int i = 0; i < docs.length; i++) {
+                double tf = freqs[i];
+                double norm = K1 * (1 - B + B * docLengths[docs[i]] / avgDocLength);
+                scores[docs[i]] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        if (!matched) return List.of();
+
+        PriorityQueue<Integer> top = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(scores[a], scores[b]));
+        for (int doc = 0; doc < docCount; doc++) {
+            if (scores[doc] <= 0) continue;
+            if (top.size() < k) {
+                top.add(doc);
+            } else if (scores[doc] > scores[top.peek()]) {
+                top.poll();
+                top.add(doc);
+            }
+        }
+
+        Integer[] ordered = top.toArray(new Integer[0]);
+        Arrays.sort(ordered, (a, b) -> Double.compare(scores[b], scores[a]));
+        return List.of(ordered);
+    }
+}
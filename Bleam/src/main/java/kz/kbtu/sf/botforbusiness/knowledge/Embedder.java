@@ -0,0 +1,21 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import java.util.List;
+
+/**
+ * Turns text into L2-normalized vectors, so cosine similarity is a dot product.
+ * The implementation is picked with {@code chat.knowledge.embedder}.
+ */
+public interface Embedder {
+
+    float[] embed(String text);
+
+    default List<float[]> embedAll(List<String> texts) {
+        return texts.stream().map(this::embed).toList();
+    }
+
+    /**
+     * Identifies the vector space; indexes built with another embedder are rebuilt.
+     */
+    String name();
+}
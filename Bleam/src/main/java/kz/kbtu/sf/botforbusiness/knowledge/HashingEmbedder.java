@@ -0,0 +1,61 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Local, deterministic embedder based on feature hashing of words and
+ * character trigrams. Needs no network and gives the same vector for the same
+ * text on every node, which makes it the default and the stand-in for tests;
+ * it captures lexical overlap only, not meaning.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.knowledge.embedder", havingValue = "hashing", matchIfMissing = true)
+public class HashingEmbedder implements Embedder {
+
+    private final int dimensions;
+
+    public HashingEmbedder(@Value("${chat.knowledge.hashing.dimensions:512}") int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        String normalized = text == null ? "" : text.toLowerCase(Locale.ROOT);
+
+        for (String word : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            add(vector, "w:" + word, 1.0f);
+
+            String padded = "#" + word + "#";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                add(vector, "t:" + padded.substring(i, i + 3), 0.5f);
+            }
+        }
+        return normalize(vector);
+    }
+
+    @Override
+    public String name() {
+        return "hashing-" + dimensions;
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        int hash = feature.hashCode();
+        // the sign bit spreads collisions so they cancel out instead of piling up
+        vector[Math.floorMod(hash, dimensions)] += (hash & 0x40000000) == 0 ? weight : -weight;
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        if (norm == 0) return vector;
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) vector[i] *= inv;
+        return vector;
+    }
+}
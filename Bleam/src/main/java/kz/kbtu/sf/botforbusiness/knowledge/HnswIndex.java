@@ -0,0 +1,175 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Hierarchical navigable small world graph over normalized vectors, using the
+ * dot product as similarity. Nodes are inserted once while the index is built
+ * and the graph is read-only afterwards, so searches need no locking as long
+ * as the finished index is published safely.
+ */
+final class HnswIndex {
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    // fixed seed: the same chunks always give the same graph on every node
+    private final Random random = new Random(42);
+
+    private final List<Node> nodes = new ArrayList<>();
+    private Node entryPoint;
+
+    HnswIndex(int m, int efConstruction) {
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Adds a vector and returns its id, which is its insertion index.
+     */
+    int add(float[] vector) {
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        Node node = new Node(nodes.size(), vector, level);
+        nodes.add(node);
+
+        if (entryPoint == null) {
+            entryPoint = node;
+            return node.id;
+        }
+
+        Node current = entryPoint;
+        for (int l = entryPoint.level(); l > level; l--) {
+            current = greedyClosest(vector, current, l);
+        }
+
+        for (int l = Math.min(level, entryPoint.level()); l >= 0; l--) {
+            List<Scored> candidates = searchLayer(vector, current, efConstruction, l);
+            int maxLinks = l == 0 ? maxM0 : m;
+
+            for (Scored candidate : candidates.subList(0, Math.min(m, candidates.size()))) {
+                node.links.get(l).add(candidate.node.id);
+                List<Integer> back = candidate.node.links.get(l);
+                back.add(node.id);
+                if (back.size() > maxLinks) prune(candidate.node, l, maxLinks);
+            }
+            current = candidates.get(0).node;
+        }
+
+        if (level > entryPoint.level()) entryPoint = node;
+        return node.id;
+    }
+
+    /**
+     * Returns the ids of up to {@code k} nearest vectors, best first.
+     */
+    List<Integer> search(float[] query, int k, int ef) {
+        if (entryPoint == null || k <= 0) return List.of();
+
+        Node current = entryPoint;
+        for (int l = entryPoint.level(); l > 0; l--) {
+            current = greedyClosest(query, current, l);
+        }
+
+        List<Scored> found = searchLayer(query, current, Math.max(ef, k), 0);
+        return found.subList(0, Math.min(k, found.size())).stream().map(s -> s.node.id).toList();
+    }
+
+    private Node greedyClosest(float[] query, Node start, int level) {
+        Node best = start;
+        double bestScore = similarity(query, start.vector);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int id : best.links.get(level)) {
+                Node neighbour = nodes.get(id);
+                double score = similarity(query, neighbour.vector);
+                if (score > bestScore) {
+                    best = neighbour;
+                    bestScore = score;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Best-first search on one layer, returning up to {@code ef} nodes best first.
+     */
+    private List<Scored> searchLayer(float[] query, Node start, int ef, int level) {
+        Set<Integer> visited = new HashSet<>();
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble((Scored s) -> s.score).reversed());
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble((Scored s) -> s.score));
+
+        Scored first = new Scored(start, similarity(query, start.vector));
+        visited.add(start.id);
+        candidates.add(first);
+        results.add(first);
+
+        while (!candidates.isEmpty()) {
+            Scored closest = candidates.poll();
+            if (results.size() >= ef && closest.score < results.peek().score) break;
+
+            for (int id : closest.node.links.get(level)) {
+                if (!visited.add(id)) continue;
+                Node neighbour = nodes.get(id);
+                double score = similarity(query, neighbour.vector);
+                if (results.size() < ef || score > results.peek().score) {
+                    Scored scored = new Scored(neighbour, score);
+                    candidates.add(scored);
+                    results.add(scored);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+
+        List<Scored> ordered = new ArrayList<>(results);
+        ordered.sort(Comparator.comparingDouble((Scored s) -> s.score).reversed());
+        return ordered;
+    }
+
+    private void prune(Node node, int level, int maxLinks) {
+        List<Integer> links = node.links.get(level);
+        links.sort(Comparator.comparingDouble((Integer id) -> similarity(node.vector, nodes.get(id).vector)).reversed());
+        links.subList(maxLinks, links.size()).clear();
+    }
+
+    static double similarity(float[] a, float[] b) {
+        double dot = 0;
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) dot += a[i] * b[i];
+        return dot;
+    }
+
+    private static final class Node {
+        final int id;
+        final float[] vector;
+        final List<List<Integer>> links;
+
+        Node(int id, float[] vector, int level) {
+            this.id = id;
+            this.vector = vector;
+            this.links = new ArrayList<>(level + 1);
+            for (int i = 0; i <= level; i++) links.add(new ArrayList<>());
+        }
+
+        int level() {
+            return links.size() - 1;
+        }
+    }
+
+    private record Scored(Node node, double score) {}
+}
@@ -0,0 +1,66 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits knowledge text into chunks of at most {@code maxChars}. Paragraphs
+ * and lines are kept whole where possible, since price lists and FAQs put one
+ * item per line; only overlong lines are cut, preferably at a sentence end.
+ */
+final class KnowledgeChunker {
+
+    private final int maxChars;
+
+    KnowledgeChunker(int maxChars) {
+        this.maxChars = Math.max(100, maxChars);
+    }
+
+    List<String> split(String content) {
+        List<String> pieces = new ArrayList<>();
+        if (content == null) return pieces;
+
+        for (String paragraph : content.split("\\n\\s*\\n")) {
+            if (paragraph.isBlank()) continue;
+            if (paragraph.length() <= maxChars) {
+                pieces.add(paragraph.strip());
+                continue;
+            }
+            for (String line : paragraph.split("\\n")) {
+                if (line.isBlank()) continue;
+                cutLine(line.strip(), pieces);
+            }
+        }
+        return pack(pieces);
+    }
+
+    private void cutLine(String line, List<String> out) {
+        while (line.length() > maxChars) {
+            int cut = Math.max(line.lastIndexOf(". ", maxChars), line.lastIndexOf("! ", maxChars));
+            cut = Math.max(cut, line.lastIndexOf("? ", maxChars));
+            if (cut < maxChars / 2) cut = line.lastIndexOf(' ', maxChars);
+            if (cut <= 0) cut = maxChars - 1;
+            out.add(line.substring(0, cut + 1).strip());
+            line = line.substring(cut + 1).strip();
+        }
+        if (!line.isEmpty()) out.add(line);
+    }
+
+    /**
+     * Joins consecutive small pieces so a chunk carries enough context to match.
+     */
+    private List<String> pack(List<String> pieces) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String piece : pieces) {
+            if (!current.isEmpty() && current.length() + 1 + piece.length() > maxChars) {
+                chunks.add(current.toString());
+                current.setLength(0);
+            }
+            if (!current.isEmpty()) current.append('\n');
+            current.append(piece);
+        }
+        if (!current.isEmpty()) chunks.add(current.toString());
+        return chunks;
+    }
+}
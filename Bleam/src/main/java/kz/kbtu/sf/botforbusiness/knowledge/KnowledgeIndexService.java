@@ -0,0 +1,232 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Retrieval over a tenant's knowledge. The knowledge is split into chunks that
+ * are kept per tenant in an HNSW vector index, a BM25 lexical index, or both
+ * ({@code chat.knowledge.retriever=vector|bm25|hybrid}), so a reply only
+ * carries the chunks relevant to the question instead of the whole text.
+ * Hybrid results are merged with reciprocal rank fusion.
+ * <p>
+ * Indexes are rebuilt in the background when the knowledge is saved, and when
+ * a query finds the index missing or built from other text (after a restart,
+ * or when another node took the update); such queries get the whole text until
+ * the index is ready, and a tenant has at most one rebuild of the same text
+ * running, so a burst of replies does not embed it once each. Knowledge
+ * shorter than {@code chat.knowledge.rag.min-chars} is returned whole. A
+ * rebuild reuses the vectors and term counts of chunks whose text did not
+ * change, so an edit to one line of a price list embeds one chunk, not all of
+ * them.
+ */
+@Slf4j
+@Service
+public class KnowledgeIndexService {
+
+    // rank constant of reciprocal rank fusion; 60 is the usual choice
+    private static final int RRF_K = 60;
+
+    private final Embedder embedder;
+    private final KnowledgeChunker chunker;
+    private final boolean enabled;
+    private final boolean useVectors;
+    private final boolean useBm25;
+    private final int minChars;
+    private final int topK;
+    private final int hnswM;
+    private final int efConstruction;
+    private final int efSearch;
+
+    private final Cache<Long, TenantIndex> indexes;
+    // fingerprint of the text each tenant's running rebuild indexes
+    private final Map<Long, String> rebuilding = new ConcurrentHashMap<>();
+    private final ExecutorService indexer = Executors.newVirtualThreadPerTaskExecutor();
+    private final Timer buildTimer;
+
+    public KnowledgeIndexService(Embedder embedder,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${chat.knowledge.rag.enabled:true}") boolean enabled,
+                                 @Value("${chat.knowledge.retriever:hybrid}") String retriever,
+                                 @Value("${chat.knowledge.rag.min-chars:3000}") int minChars,
+                                 @Value("${chat.knowledge.rag.chunk-chars:600}") int chunkChars,
+                                 @Value("${chat.knowledge.rag.top-k:5}") int topK,
+                                 @Value("${chat.knowledge.hnsw.m:16}") int hnswM,
+                                 @Value("${chat.knowledge.hnsw.ef-construction:100}") int efConstruction,
+                                 @Value("${chat.knowledge.hnsw.ef-search:50}") int efSearch,
+                                 @Value("${chat.knowledge.cache.max-tenants:1000}") long maxTenants,
+                                 @Value("${chat.knowledge.cache.idle-ms:86400000}") long idleMs) {
+        this.embedder = embedder;
+        this.chunker = new KnowledgeChunker(chunkChars);
+        this.enabled = enabled;
+        String mode = retriever.trim().toLowerCase(Locale.ROOT);
+        this.useVectors = !mode.equals("bm25");
+        this.useBm25 = !mode.equals("vector");
+        this.minChars = minChars;
+        this.topK = Math.max(1, topK);
+        this.hnswM = hnswM;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.indexes = Caffeine.newBuilder()
+                .maximumSize(maxTenants)
+                .expireAfterAccess(Duration.ofMillis(idleMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, indexes, "chat.knowledge.indexes");
+        this.buildTimer = meterRegistry.timer("chat.knowledge.index.build");
+        log.info("Knowledge retrieval {} ({}, embedder {})", enabled ? "enabled" : "disabled", mode, embedder.name());
+    }
+
+    /**
+     * Rebuilds the tenant's index in the background after its knowledge
+     * changed, unless a rebuild of the same text is already running.
+     */
+    public void reindexAsync(Long tenantId, String content) {
+        if (!enabled || content == null) return;
+        String fingerprint = fingerprint(content);
+        if (fingerprint.equals(rebuilding.put(tenantId, fingerprint))) return;
+
+        indexer.submit(() -> {
+            try {
+                index(tenantId, content);
+            } catch (Exception e) {
+                // the next query starts another rebuild
+                indexes.invalidate(tenantId);
+                log.warn("Indexing knowledge of tenant {} failed: {}", tenantId, e.getMessage());
+            } finally {
+                rebuilding.remove(tenantId, fingerprint);
+            }
+        });
+    }
+
+    public void remove(Long tenantId) {
+        indexes.invalidate(tenantId);
+    }
+
+    /**
+     * Returns the part of the knowledge to put into the prompt for {@code question}:
+     * the top-k chunks in their original order, or the whole text when it is
+     * short, retrieval is disabled, or the index is not built yet.
+     */
+    public String relevantKnowledge(Long tenantId, String content, String question) {
+        if (!enabled || content == null || content.length() < minChars || question == null || question.isBlank()) {
+            return content;
+        }
+
+        try {
+            TenantIndex index = indexes.getIfPresent(tenantId);
+            if (index == null || !index.fingerprint().equals(fingerprint(content))) {
+                // embedding every chunk would hold up the reply; answer from the whole text meanwhile
+                reindexAsync(tenantId, content);
+                return content;
+            }
+            if (index.chunks().size() <= topK) return content;
+
+            return search(index, question).stream()
+                    .sorted()
+                    .map(index.chunks()::get)
+                    .collect(Collectors.joining("\n...\n"));
+        } catch (Exception e) {
+            log.warn("Knowledge retrieval for tenant {} failed, using the full text: {}", tenantId, e.getMessage());
+            return content;
+        }
+    }
+
+    private List<Integer> search(TenantIndex index, String question) {
+        List<Integer> lexical = useBm25
+                ? index.bm25().search(KnowledgeTokenizer.tokens(question), topK)
+                : List.of();
+        if (!useVectors) return lexical;
+
+        List<Integer> semantic = index.hnsw().search(embedder.embed(question), topK, efSearch);
+        if (lexical.isEmpty()) return semantic;
+
+        Map<Integer, Double> fused = new HashMap<>();
+        for (int rank = 0; rank < lexical.size(); rank++) fused.merge(lexical.get(rank), 1.0 / (RRF_K + rank), Double::sum);
+        for (int rank = 0; rank < semantic.size(); rank++) fused.merge(semantic.get(rank), 1.0 / (RRF_K + rank), Double::sum);
+        return fused.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Double>comparingByValue().reversed())
+                .limit(topK)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private TenantIndex index(Long tenantId, String content) {
+        return buildTimer.record(() -> {
+            List<String> chunks = chunker.split(content);
+            TenantIndex previous = indexes.getIfPresent(tenantId);
+            Map<String, Integer> reusable = new HashMap<>();
+            if (previous != null) {
+                for (int i = 0; i < previous.chunks().size(); i++) reusable.putIfAbsent(previous.chunks().get(i), i);
+            }
+
+            List<float[]> vectors = useVectors ? new ArrayList<>(Collections.nCopies(chunks.size(), null)) : null;
+            List<Map<String, Integer>> termFrequencies = new ArrayList<>(chunks.size());
+            List<String> toEmbed = new ArrayList<>();
+            List<Integer> toEmbedAt = new ArrayList<>();
+
+            for (int i = 0; i < chunks.size(); i++) {
+                Integer old = reusable.get(chunks.get(i));
+                termFrequencies.add(old != null ? previous.termFrequencies().get(old) : KnowledgeTokenizer.termFrequencies(chunks.get(i)));
+                if (!useVectors) continue;
+                if (old != null && previous.vectors() != null) {
+                    vectors.set(i, previous.vectors().get(old));
+                } else {
+                    toEmbed.add(chunks.get(i));
+                    toEmbedAt.add(i);
+                }
+            }
+
+            HnswIndex hnsw = null;
+            if (useVectors) {
+                if (!toEmbed.isEmpty()) {
+                    List<float[]> embedded = embedder.embedAll(toEmbed);
+                    for (int i = 0; i < embedded.size(); i++) vectors.set(toEmbedAt.get(i), embedded.get(i));
+                }
+                hnsw = new HnswIndex(hnswM, efConstruction);
+                vectors.forEach(hnsw::add);
+            }
+            Bm25Index bm25 = useBm25 ? new Bm25Index(termFrequencies) : null;
+
+            TenantIndex index = new TenantIndex(fingerprint(content), chunks, vectors, termFrequencies, hnsw, bm25);
+            indexes.put(tenantId, index);
+            log.debug("Indexed knowledge of tenant {}: {} chunks, {} embedded", tenantId, chunks.size(), toEmbed.size());
+            return index;
+        });
+    }
+
+    private String fingerprint(String content) {
+        return embedder.name() + ":" + content.length() + ":" + content.hashCode();
+    }
+
+    @PreDestroy
+    public void stop() {
+        indexer.shutdownNow();
+    }
+
+    private record TenantIndex(String fingerprint,
+                               List<String> chunks,
+                               List<float[]> vectors,
+                               List<Map<String, Integer>> termFrequencies,
+                               HnswIndex hnsw,
+                               Bm25Index bm25) {}
+}
@@ -0,0 +1,99 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lower-cases, splits and stems text for {@link Bm25Index}. The stemmer is a
+ * light suffix stripper: Kazakh endings for words with Kazakh-specific letters,
+ * Russian endings otherwise. It is not linguistically exact, but queries and
+ * documents go through the same rules, which is all matching needs.
+ */
+final class KnowledgeTokenizer {
+
+    private static final int MIN_STEM = 3;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "и", "в", "во", "на", "с", "со", "по", "к", "ко", "о", "об", "от", "до", "за", "из", "у", "не", "ли",
+            "а", "но", "же", "бы", "то", "это", "как", "что", "для", "или", "мне", "вы", "вас", "я", "мы",
+            "және", "мен", "бен", "пен", "бұл", "сол", "ма", "ме", "ба", "бе", "па", "пе", "да", "де", "та", "те",
+            "the", "a", "an", "of", "to", "in", "is", "and", "or", "for");
+
+    // longest first, so "ами" wins over "и"
+    private static final String[] RUSSIAN_SUFFIXES = sortedByLength(
+            "ейшими", "ейшего", "ейшему", "ейшей", "ость", "ости", "остью", "остей",
+            "иями", "ями", "ами", "ого", "его", "ому", "ему", "ыми", "ими", "ией", "ах", "ях", "ов", "ев", "ей",
+            "ий", "ый", "ой", "ая", "яя", "ое", "ее", "ые", "ие", "ую", "юю", "ом", "ем", "ам", "ям",
+            "ать", "ять", "ить", "еть", "уть", "ешь", "ет", "ют", "ут", "ит", "ат", "ят", "ла", "ло", "ли", "ть",
+            "ся", "сь", "а", "я", "о", "е", "ы", "и", "у", "ю", "ь", "й");
+
+    private static final String[] KAZAKH_SUFFIXES = sortedByLength(
+            "лардың", "лердің", "дардың", "дердің", "тардың", "тердің",
+            "лар", "лер", "дар", "дер", "тар", "тер",
+            "ның", "нің", "дың", "дің", "тың", "тің",
+            "дан", "ден", "тан", "тен", "нан", "нен",
+            "ға", "ге", "қа", "ке", "на", "не", "да", "де", "та", "те",
+            "ны", "ні", "ды", "ді", "ты", "ті",
+            "мен", "бен", "пен",
+            "ым", "ім", "ың", "ің", "сы", "сі", "ы", "і");
+
+    private KnowledgeTokenizer() {
+    }
+
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+
+        for (String word : text.toLowerCase(Locale.ROOT).replace('ё', 'е').split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty() || STOP_WORDS.contains(word)) continue;
+            tokens.add(stem(word));
+        }
+        return tokens;
+    }
+
+    static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokens(text)) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    static String stem(String word) {
+        if (word.length() <= MIN_STEM || !Character.isLetter(word.charAt(0))) return word;
+
+        if (isKazakh(word)) {
+            // Kazakh stacks endings (plural + case), so strip up to two of them
+            String stem = stripSuffix(word, KAZAKH_SUFFIXES);
+            return stripSuffix(stem, KAZAKH_SUFFIXES);
+        }
+        return stripSuffix(word, RUSSIAN_SUFFIXES);
+    }
+
+    private static boolean isKazakh(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if ("әғқңөұүһі".indexOf(word.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    private static String stripSuffix(String word, String[] suffixes) {
+        for (String suffix : suffixes) {
+            if (word.endsWith(suffix) && word.length() - suffix.length() >= MIN_STEM) {
+                return word.substring(0, word.length() - suffix.length());
+            }
+        }
+        return word;
+    }
+
+    private static String[] sortedByLength(String... suffixes) {
+        String[] sorted = suffixes.clone();
+        Arrays.sort(sorted, (a, b) -> b.length() - a.length());
+        return sorted;
+    }
+}
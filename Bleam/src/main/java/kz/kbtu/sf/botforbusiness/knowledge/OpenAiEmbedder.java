@@ -0,0 +1,67 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import kz.kbtu.sf.botforbusiness.service.LlmHttpTransport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embeds through the OpenAI embeddings API, batching all chunks of a
+ * knowledge base into one request.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.knowledge.embedder", havingValue = "openai")
+public class OpenAiEmbedder implements Embedder {
+
+    private static final String EMBEDDINGS_URL = "https://api.openai.com/v1/embeddings";
+    private static final String PROVIDER = "openai";
+
+    private final LlmHttpTransport transport;
+    private final String model;
+
+    @Value("${openai.api.key}")
+    private String openaiApiKey;
+
+    public OpenAiEmbedder(LlmHttpTransport transport,
+                          @Value("${chat.knowledge.openai.model:text-embedding-3-small}") String model) {
+        this.transport = transport;
+        this.model = model;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        return embedAll(List.of(text)).get(0);
+    }
+
+    @Override
+    public List<float[]> embedAll(List<String> texts) {
+        Map<String, Object> response = transport.postJson(PROVIDER, EMBEDDINGS_URL,
+                Map.of("Authorization", "Bearer " + openaiApiKey),
+                Map.of("model", model, "input", texts));
+
+        List<?> data = response.get("data") instanceof List<?> list ? list : List.of();
+        if (data.size() != texts.size()) {
+            throw new IllegalStateException("OpenAI returned " + data.size() + " embeddings for " + texts.size() + " inputs");
+        }
+
+        List<float[]> vectors = new ArrayList<>(data.size());
+        for (Object item : data) {
+            if (!(item instanceof Map<?, ?> entry) || !(entry.get("embedding") instanceof List<?> values)) {
+                throw new IllegalStateException("OpenAI returned an embedding without values");
+            }
+            float[] vector = new float[values.size()];
+            for (int i = 0; i < vector.length; i++) vector[i] = ((Number) values.get(i)).floatValue();
+            vectors.add(HashingEmbedder.normalize(vector));
+        }
+        return vectors;
+    }
+
+    @Override
+    public String name() {
+        return "openai-" + model;
+    }
+}
@@ -5,11 +5,13 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = @Index(name = "idx_messages_session_ts_id", columnList = "session_id, timestamp, id"))
 public class Message {
 
+    // pooled sequence ids let Hibernate batch inserts, IDENTITY would force one round trip per row
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "messages_seq")
+    @SequenceGenerator(name = "messages_seq", sequenceName = "messages_seq", allocationSize = 50)
     private Long id;
 
     @Column(columnDefinition = "TEXT")
@@ -19,6 +21,10 @@ public class Message {
     private SenderType sender;
     private LocalDateTime timestamp;
 
+    // set by the write-behind queue so a replayed message is never stored twice
+    @Column(unique = true, length = 36)
+    private String clientId;
+
     @ManyToOne
     @JoinColumn(name = "session_id")
     private Session session;
@@ -31,6 +37,13 @@ public class Message {
         this.timestamp = LocalDateTime.now();
     }
 
+    public Message(String text, SenderType sender, LocalDateTime timestamp, String clientId) {
+        this.text = text;
+        this.sender = sender;
+        this.timestamp = timestamp;
+        this.clientId = clientId;
+    }
+
     public Long getId(){
         return id;
     }
@@ -47,6 +60,10 @@ public class Message {
         return timestamp;
     }
 
+    public String getClientId(){
+        return clientId;
+    }
+
     public Session getSession(){
         return session;
     }
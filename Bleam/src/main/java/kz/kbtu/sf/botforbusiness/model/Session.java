@@ -5,11 +5,14 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "sessions")
+@Table(name = "sessions", uniqueConstraints = @UniqueConstraint(
+        name = "uk_sessions_owner_platform_chat", columnNames = {"user_id", "platform_type", "chat_user_id"}))
 public class Session {
 
+    // pooled sequence ids let Hibernate batch inserts, IDENTITY would force one round trip per row
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sessions_seq")
+    @SequenceGenerator(name = "sessions_seq", sequenceName = "sessions_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
@@ -22,6 +25,10 @@ public class Session {
     private LocalDateTime startedAt;
     private LocalDateTime endedAt;
 
+    @Column(columnDefinition = "TEXT")
+    private String historySummary;
+    private Long summarizedUpToId;
+
     protected Session() {}
 
     public Session(String chatUserId, PlatformType platformType) {
@@ -55,6 +62,28 @@ public class Session {
         return endedAt;
     }
 
+    public String getHistorySummary() {
+        return historySummary;
+    }
+
+    /**
+     * Id of the newest message already folded into {@link #getHistorySummary()}.
+     */
+    public Long getSummarizedUpToId() {
+        return summarizedUpToId;
+    }
+
+    /**
+     * Applies a summary that was written with
+     * {@code SessionRepository.updateHistorySummary} to this instance, so cached
+     * copies see it without being reloaded.
+     */
+    public synchronized void applyHistorySummary(String summary, Long upToId) {
+        if (upToId == null || (summarizedUpToId != null && summarizedUpToId >= upToId)) return;
+        this.historySummary = summary;
+        this.summarizedUpToId = upToId;
+    }
+
     void updateInteractionTime() {
         this.endedAt = LocalDateTime.now();
     }
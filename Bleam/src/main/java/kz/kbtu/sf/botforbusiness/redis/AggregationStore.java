@@ -0,0 +1,271 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import kz.kbtu.sf.botforbusiness.model.PlatformType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the messages that are waiting to be answered in Redis instead of
+ * process memory, so a restart inside the debounce window loses nothing.
+ * <p>
+ * Every open window is a hash of {@code stream|recordId -> text} plus a member of
+ * one sorted set scored by its takeover deadline. Claiming a window removes both
+ * atomically, so exactly one node answers it: normally the node whose debouncer
+ * fired, otherwise whichever node's sweeper sees the deadline pass first.
+ * The stream records stay unacknowledged until the reply has been published.
+ * <p>
+ * A reply attempt records its progress per stream record (user text saved,
+ * reply delivered, reply saved), so the retry of a window that failed half
+ * way neither stores the customer's messages twice nor sends the reply again.
+ */
+@Slf4j
+@Component
+public class AggregationStore {
+
+    private static final String DEADLINES_KEY = "chat:agg:deadlines";
+    private static final String MESSAGES_PREFIX = "chat:agg:msgs:";
+    private static final String PROGRESS_PREFIX = "chat:agg:progress:";
+
+    private static final String SAVED_FIELD = "saved";
+    private static final String REPLY_FIELD = "reply";
+    private static final String REPLY_SAVED_FIELD = "reply_saved";
+
+    private static final RedisScript<Long> APPEND_SCRIPT = RedisScript.of("""
+            redis.call('HSET', KEYS[2], ARGV[2], ARGV[3])
+            redis.call('PEXPIRE', KEYS[2], ARGV[5])
+            return redis.call('ZADD', KEYS[1], 'NX', ARGV[4], ARGV[1])
+            """, Long.class);
+
+    private static final RedisScript<List<Object>> CLAIM_SCRIPT = listScript("""
+            local score = redis.call('ZSCORE', KEYS[1], ARGV[1])
+            if not score then return {} end
+            if ARGV[3] ~= '1' and tonumber(score) > tonumber(ARGV[2]) then return {} end
+            redis.call('ZREM', KEYS[1], ARGV[1])
+            local entries = redis.call('HGETALL', KEYS[2])
+            redis.call('DEL', KEYS[2])
+            return entries
+            """);
+
+    private final StringRedisTemplate redisTemplate;
+    private final long takeoverAfterMs;
+    private final long retentionMs;
+    private final long sweepIntervalMs;
+
+    private final Map<PlatformType, ExpiredWindowHandler> handlers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "aggregation-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter takeovers;
+
+    public AggregationStore(StringRedisTemplate redisTemplate,
+                            @Value("${chat.debounce.max-wait-ms:8000}") long maxWaitMs,
+                            @Value("${chat.aggregation.takeover-grace-ms:5000}") long takeoverGraceMs,
+                            @Value("${chat.aggregation.retention-ms:86400000}") long retentionMs,
+                            @Value("${chat.aggregation.sweep-interval-ms:1000}") long sweepIntervalMs,
+                            MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.takeoverAfterMs = maxWaitMs + takeoverGraceMs;
+        this.retentionMs = retentionMs;
+        this.sweepIntervalMs = sweepIntervalMs;
+        this.takeovers = meterRegistry.counter("chat.aggregation.takeovers");
+    }
+
+    @PostConstruct
+    public void startSweeper() {
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers who answers windows of a platform that no live debouncer flushed.
+     */
+    public void registerExpiredWindowHandler(PlatformType platform, ExpiredWindowHandler handler) {
+        handlers.put(platform, handler);
+    }
+
+    public void append(PlatformType platform, Long userId, String chatUserId, String stream, RecordId recordId, String message) {
+        append(platform, userId, chatUserId, stream, recordId, message, System.currentTimeMillis() + takeoverAfterMs);
+    }
+
+    /**
+     * Puts the messages of a failed reply back as a window that becomes due after
+     * {@code delayMs}, so whichever node's sweeper sees it first retries the reply.
+     */
+    public void reopen(PlatformType platform, Long userId, String chatUserId, List<BufferedMessage> messages, long delayMs) {
+        long deadline = System.currentTimeMillis() + delayMs;
+        for (BufferedMessage m : messages) {
+            append(platform, userId, chatUserId, m.stream(), m.recordId(), m.text(), deadline);
+        }
+    }
+
+    private void append(PlatformType platform, Long userId, String chatUserId, String stream, RecordId recordId, String message, long deadline) {
+        String member = member(platform, userId, chatUserId);
+
+        redisTemplate.execute(APPEND_SCRIPT,
+                List.of(DEADLINES_KEY, MESSAGES_PREFIX + member),
+                member, stream + "|" + recordId.getValue(), message, String.valueOf(deadline), String.valueOf(retentionMs));
+    }
+
+    /**
+     * Atomically takes the window over. Returns an empty list when another node
+     * already claimed it.
+     *
+     * @param force claim even if the takeover deadline has not passed yet
+     */
+    public List<BufferedMessage> claim(PlatformType platform, Long userId, String chatUserId, boolean force) {
+        String member = member(platform, userId, chatUserId);
+        List<Object> raw = redisTemplate.execute(CLAIM_SCRIPT,
+                List.of(DEADLINES_KEY, MESSAGES_PREFIX + member),
+                member, String.valueOf(System.currentTimeMillis()), force ? "1" : "0");
+
+        List<BufferedMessage> messages = new ArrayList<>();
+        if (raw == null) return messages;
+
+        for (int i = 0; i + 1 < raw.size(); i += 2) {
+            String field = String.valueOf(raw.get(i));
+            int sep = field.lastIndexOf('|');
+            messages.add(new BufferedMessage(
+                    field.substring(0, sep),
+                    RecordId.of(field.substring(sep + 1)),
+                    String.valueOf(raw.get(i + 1))
+            ));
+        }
+        // stream ids are time ordered, so this restores the order the user typed in
+        messages.sort(Comparator.comparing((BufferedMessage m) -> m.recordId().getTimestamp())
+                .thenComparing(m -> m.recordId().getSequence()));
+        return messages;
+    }
+
+    /**
+     * Returns what earlier attempts already did for these records.
+     */
+    public ReplyProgress progress(List<BufferedMessage> messages) {
+        Set<RecordId> saved = new HashSet<>();
+        Set<String> replies = new HashSet<>();
+        boolean allReplied = true;
+        boolean allReplySaved = true;
+
+        for (BufferedMessage m : messages) {
+            Map<Object, Object> fields = redisTemplate.opsForHash().entries(progressKey(m));
+            if (fields.containsKey(SAVED_FIELD)) saved.add(m.recordId());
+            Object reply = fields.get(REPLY_FIELD);
+            if (reply == null) {
+                allReplied = false;
+            } else {
+                replies.add(reply.toString());
+            }
+            if (!fields.containsKey(REPLY_SAVED_FIELD)) allReplySaved = false;
+        }
+
+        // a record that joined the window later has not been answered yet
+        String reply = allReplied && replies.size() == 1 ? replies.iterator().next() : null;
+        return new ReplyProgress(saved, reply, reply != null && allReplySaved);
+    }
+
+    public void markSaved(List<BufferedMessage> messages) {
+        mark(messages, SAVED_FIELD, "1");
+    }
+
+    public void markReplied(List<BufferedMessage> messages, String reply) {
+        mark(messages, REPLY_FIELD, reply);
+    }
+
+    public void markReplySaved(List<BufferedMessage> messages) {
+        mark(messages, REPLY_SAVED_FIELD, "1");
+    }
+
+    /**
+     * Forgets the progress once the records are acknowledged.
+     */
+    public void clearProgress(List<BufferedMessage> messages) {
+        redisTemplate.delete(messages.stream().map(this::progressKey).toList());
+    }
+
+    private void mark(List<BufferedMessage> messages, String field, String value) {
+        for (BufferedMessage m : messages) {
+            String key = progressKey(m);
+            redisTemplate.opsForHash().put(key, field, value);
+            redisTemplate.expire(key, Duration.ofMillis(retentionMs));
+        }
+    }
+
+    private String progressKey(BufferedMessage m) {
+        return PROGRESS_PREFIX + m.stream() + "|" + m.recordId().getValue();
+    }
+
+    private void sweep() {
+        try {
+            Set<String> expired = redisTemplate.opsForZSet()
+                    .rangeByScore(DEADLINES_KEY, 0, System.currentTimeMillis(), 0, 100);
+            if (expired == null) return;
+
+            for (String member : expired) {
+                String[] parts = member.split(":", 3);
+                PlatformType platform = PlatformType.valueOf(parts[0]);
+                ExpiredWindowHandler handler = handlers.get(platform);
+                if (handler == null) continue;
+
+                Long userId = Long.parseLong(parts[1]);
+                List<BufferedMessage> messages = claim(platform, userId, parts[2], false);
+                if (messages.isEmpty()) continue;
+
+                takeovers.increment();
+                log.info("Taking over expired aggregation window {}", member);
+                handler.onExpired(userId, parts[2], messages);
+            }
+        } catch (Exception e) {
+            log.debug("Aggregation sweep failed: {}", e.getMessage());
+        }
+    }
+
+    private String member(PlatformType platform, Long userId, String chatUserId) {
+        return platform.name() + ":" + userId + ":" + chatUserId;
+    }
+
+    // RedisScript only takes a Class, so a list result cannot be typed without the cast
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static RedisScript<List<Object>> listScript(String script) {
+        return (RedisScript<List<Object>>) (RedisScript) RedisScript.of(script, List.class);
+    }
+
+    @PreDestroy
+    public void stop() {
+        sweeper.shutdownNow();
+    }
+
+    public record BufferedMessage(String stream, RecordId recordId, String text) {}
+
+    /**
+     * @param saved      records whose text is already stored as a user message
+     * @param reply      the reply already delivered for the whole window, or null
+     * @param replySaved whether that reply is already stored as well
+     */
+    public record ReplyProgress(Set<RecordId> saved, String reply, boolean replySaved) {}
+
+    @FunctionalInterface
+    public interface ExpiredWindowHandler {
+        void onExpired(Long userId, String chatUserId, List<BufferedMessage> messages);
+    }
+}
@@ -1,126 +1,263 @@
 package kz.kbtu.sf.botforbusiness.redis;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.persistence.EntityNotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import kz.kbtu.sf.botforbusiness.model.*;
-import kz.kbtu.sf.botforbusiness.repository.UserRepository;
 import kz.kbtu.sf.botforbusiness.service.*;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.*;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Slf4j
 public abstract class BaseRedisListener {
 
-    private final BotKnowledgeService botKnowledgeService;
     private final SessionService sessionService;
     private final MessageService messageService;
-    private final GeminiService geminiService;
-    private final GPTService gptService;
-    private final UserRepository userRepository;
+    private final LlmRouter llmRouter;
+    private final TenantConfigCache tenantConfigCache;
+    private final ConversationExecutor conversationExecutor;
+    private final ReplyDebouncer replyDebouncer;
+    private final AggregationStore aggregationStore;
+    private final DeadLetterService deadLetterService;
+    private final ReplyStreamer replyStreamer;
+    private final AnswerCache answerCache;
+    private final ChatHistoryService chatHistoryService;
+    private final SingleFlightReplies singleFlightReplies;
+    private final PromptAssembler promptAssembler;
+    private final Counter rejectedFlushes;
+    private final Counter rejectedTakeovers;
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final Map<String, List<String>> buffer = new ConcurrentHashMap<>();
-    private final Map<String, ScheduledFuture<?>> tasks = new ConcurrentHashMap<>();
-
-    protected BaseRedisListener(BotKnowledgeService botKnowledgeService, SessionService sessionService, MessageService messageService, GeminiService geminiService, GPTService gptService, UserRepository userRepository) {
-        this.botKnowledgeService = botKnowledgeService;
+    protected BaseRedisListener(SessionService sessionService, MessageService messageService, LlmRouter llmRouter, TenantConfigCache tenantConfigCache, ConversationExecutor conversationExecutor, ReplyDebouncer replyDebouncer, AggregationStore aggregationStore, DeadLetterService deadLetterService, ReplyStreamer replyStreamer, AnswerCache answerCache, ChatHistoryService chatHistoryService, SingleFlightReplies singleFlightReplies, PromptAssembler promptAssembler, MeterRegistry meterRegistry) {
         this.sessionService = sessionService;
         this.messageService = messageService;
-        this.geminiService = geminiService;
-        this.gptService = gptService;
-        this.userRepository = userRepository;
+        this.llmRouter = llmRouter;
+        this.tenantConfigCache = tenantConfigCache;
+        this.conversationExecutor = conversationExecutor;
+        this.replyDebouncer = replyDebouncer;
+        this.aggregationStore = aggregationStore;
+        this.deadLetterService = deadLetterService;
+        this.replyStreamer = replyStreamer;
+        this.answerCache = answerCache;
+        this.chatHistoryService = chatHistoryService;
+        this.singleFlightReplies = singleFlightReplies;
+        this.promptAssembler = promptAssembler;
+        this.rejectedFlushes = meterRegistry.counter("chat.replies.rejected", "path", "flush");
+        this.rejectedTakeovers = meterRegistry.counter("chat.replies.rejected", "path", "takeover");
     }
 
-    protected void handleMessage(String messageJson, PlatformType platform, RedisResponseSender sender) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode json = mapper.readTree(messageJson);
-            Long userId = json.get("userId").asLong();
-            String chatUserId = json.get("chatUserId").asText();
-            String message = json.get("message").asText();
-
+    /**
+     * Lets any node answer this platform's windows whose owner died before replying.
+     */
+    protected void enableTakeover(PlatformType platform, RedisResponseSender sender) {
+        aggregationStore.registerExpiredWindowHandler(platform, (userId, chatUserId, msgs) -> {
             String key = userId + ":" + chatUserId;
+            if (conversationExecutor.submit(key, () -> sendAggregatedReply(key, msgs, platform, sender, userId, chatUserId))) return;
 
-            buffer.computeIfAbsent(key, k -> new ArrayList<>()).add(message);
-
-            ScheduledFuture<?> prev = tasks.get(key);
-            if (prev != null) {
-                prev.cancel(false);
+            // already claimed, so put it back for a later takeover rather than leave it to the reclaimer
+            rejectedTakeovers.increment();
+            try {
+                aggregationStore.reopen(platform, userId, chatUserId, msgs, deadLetterService.backoffMs(1));
+            } catch (Exception e) {
+                log.error("❌ Could not reopen window of key={} after its mailbox was full", key, e);
             }
+        });
+    }
 
-            int delay = 1 + new Random().nextInt(11);
-            ScheduledFuture<?> future = scheduler.schedule(() -> {
-                sendAggregatedReply(key, platform, sender, userId, chatUserId);
-            }, delay, TimeUnit.SECONDS);
+    /**
+     * Acknowledges an incoming record once its reply has been published.
+     */
+    protected abstract void acknowledge(String stream, RecordId recordId);
 
-            tasks.put(key, future);
+    /**
+     * Dead-letters a record that has already been delivered more often than the
+     * retry budget allows, e.g. one that kept crashing the consumer that held it.
+     */
+    protected boolean deadLetterIfOverLimit(MapRecord<String, String, String> rec, long deliveryCount) {
+        if (!deadLetterService.isOverDeliveryLimit(deliveryCount)) return false;
 
+        deadLetterService.deadLetter(rec.getStream(), rec.getId(), rec.getValue(), deliveryCount - 1, "delivery limit exceeded");
+        acknowledge(rec.getStream(), rec.getId());
+        return true;
+    }
+
+    /**
+     * Called when processing a record failed: schedules another delivery with
+     * backoff, or moves the record to the dead-letter stream once it is out of attempts.
+     */
+    protected void retryOrDeadLetter(StreamConsumer pool, MapRecord<String, String, String> rec, Exception error) {
+        try {
+            long attempts = deadLetterService.recordFailure(rec.getStream(), rec.getId());
+            if (deadLetterService.isExhausted(attempts)) {
+                deadLetterService.deadLetter(rec.getStream(), rec.getId(), rec.getValue(), attempts, error.getMessage());
+                acknowledge(rec.getStream(), rec.getId());
+                return;
+            }
+            deadLetterService.scheduleRetry(attempts, () -> {
+                try {
+                    pool.redeliver(rec, attempts + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
         } catch (Exception e) {
-            log.error("❌ Error buffering Kafka message", e);
+            // the record is still pending, so the reclaimer brings it back later
+            log.error("❌ Could not schedule retry for record {} from stream {}", rec.getId(), rec.getStream(), e);
         }
     }
 
-    private void sendAggregatedReply(String key, PlatformType platform, RedisResponseSender sender, Long userId, String chatUserId) {
+    protected void handleMessage(String messageJson, String stream, RecordId recordId, PlatformType platform, RedisResponseSender sender) throws JsonProcessingException {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode json = mapper.readTree(messageJson);
+        Long userId = json.get("userId").asLong();
+        String chatUserId = json.get("chatUserId").asText();
+        String message = json.get("message").asText();
+
+        String key = userId + ":" + chatUserId;
+
+        // a failure here reaches the caller, which retries the record
+        aggregationStore.append(platform, userId, chatUserId, stream, recordId, message);
+
+        // the debouncer only keeps time; the reply itself runs in the conversation's mailbox
+        replyDebouncer.offer(key, userId, message, () -> {
+            if (!conversationExecutor.submit(key, () -> flushWindow(key, platform, sender, userId, chatUserId))) {
+                // nothing claimed yet: the window stays in Redis and is taken over at its deadline
+                rejectedFlushes.increment();
+            }
+        });
+    }
+
+    private void flushWindow(String key, PlatformType platform, RedisResponseSender sender, Long userId, String chatUserId) {
+        List<AggregationStore.BufferedMessage> buffered;
         try {
-            List<String> msgs = buffer.remove(key);
-            tasks.remove(key);
+            buffered = aggregationStore.claim(platform, userId, chatUserId, true);
+        } catch (Exception e) {
+            // the window stays in Redis and will be taken over once its deadline passes
+            log.error("❌ Error claiming aggregation window for key={}", key, e);
+            return;
+        }
+        sendAggregatedReply(key, buffered, platform, sender, userId, chatUserId);
+    }
 
-            if (msgs == null || msgs.isEmpty()) {
+    private void sendAggregatedReply(String key, List<AggregationStore.BufferedMessage> buffered, PlatformType platform, RedisResponseSender sender, Long userId, String chatUserId) {
+        try {
+            if (buffered == null || buffered.isEmpty()) {
                 log.warn("sendAggregatedReply: msgs is null or empty for key={}", key);
                 return;
             }
 
+            List<String> msgs = buffered.stream().map(AggregationStore.BufferedMessage::text).toList();
+
             String combined = msgs.stream()
                     .map(String::trim)
                     .filter(s -> !s.isEmpty())
                     .collect(Collectors.joining(". "));
 
-            String knowledge = botKnowledgeService
-                    .getKnowledgeContentByUserId(userId)
+            TenantConfigCache.TenantConfig tenant = tenantConfigCache.get(userId);
+            String knowledge = Optional.ofNullable(tenant.knowledge())
                     .filter(s -> !s.isBlank())
                     .orElse("Ты — дружелюбный помощник. Отвечай кратко, по делу и в живом человеческом стиле.");
 
             Session session = sessionService.getOrCreateSession(userId, chatUserId, platform);
 
-            for (String m : msgs) {
-                messageService.saveMessage(session, m, SenderType.USER);
+            // a retried window must not store the customer's messages a second time
+            AggregationStore.ReplyProgress progress = aggregationStore.progress(buffered);
+            List<AggregationStore.BufferedMessage> unsaved = buffered.stream()
+                    .filter(m -> !progress.saved().contains(m.recordId()))
+                    .toList();
+            if (!unsaved.isEmpty()) {
+                messageService.saveMessages(session, unsaved.stream().map(AggregationStore.BufferedMessage::text).toList(), SenderType.USER);
+                aggregationStore.markSaved(unsaved);
             }
 
-            String history = messageService.buildChatHistory(session.getId());
-
-            String systemPrompt = knowledge + " " +
-                    "Если пользователь здоровается — поприветствуй его уместно. " +
-                    "Если нет — продолжай разговор по теме. " +
-                    "Не добавляй префиксы ('Bot:', 'Ответ:'). " +
-                    "Пиши только по сути, избегая лишней воды.";
-
-            String userPrompt =
-                    "--- История переписки ---\n" +
-                            history + "\n\n" +
-                            "Пользователь сейчас написал: \"" + combined + "\"";
-
-            User user = userRepository.findById(userId).orElseThrow(() -> new EntityNotFoundException("User not found"));
+            ChatHistory history = chatHistoryService.buildChatHistory(session);
 
             String reply;
-            if (user.getAiModel() == AiModelType.GPT) {
-                reply = gptService.getGPTResponse(systemPrompt, userPrompt);
+            // the cache stays keyed on the full text, so any edit of the knowledge invalidates it
+            Optional<String> cached = progress.reply() == null
+                    ? answerCache.get(userId, knowledge, history, combined)
+                    : Optional.empty();
+            if (progress.reply() != null) {
+                // an earlier attempt already reached the chat and failed afterwards
+                reply = progress.reply();
+            } else if (cached.isPresent()) {
+                reply = cached.get();
+                sender.send(chatUserId, reply, userId);
             } else {
-                reply = geminiService.getGeminiResponse(systemPrompt + "\n\n" + userPrompt);
+                // retrieval and budgeting only for replies that actually go to the model
+                ChatPrompt prompt = promptAssembler.assemble(userId, tenant.aiModel(), knowledge, history, combined);
+                LlmClient model = llmRouter.forTenant(userId, tenant.aiModel());
+
+                // sentences reach the chat while the model is still writing; the full text is stored once.
+                // identical questions in flight at the same time share one call and get the whole text at the end
+                SingleFlightReplies.Reply result = singleFlightReplies.execute(userId, String.valueOf(tenant.aiModel()),
+                        prompt.system(), history.render(), combined,
+                        () -> replyStreamer.reply(model, prompt, platform, userId, chatUserId, sender));
+                reply = result.text();
+                if (result.shared()) {
+                    sender.send(chatUserId, reply, userId);
+                } else {
+                    answerCache.put(userId, knowledge, history, combined, reply);
+                }
+            }
+            if (progress.reply() == null) {
+                aggregationStore.markReplied(buffered, reply);
+            }
+            if (!progress.replySaved()) {
+                messageService.saveMessage(session, reply, SenderType.BOT);
+                aggregationStore.markReplySaved(buffered);
             }
 
-            if (reply == null) reply = "";
-            messageService.saveMessage(session, reply, SenderType.BOT);
-            sender.send(chatUserId, reply, userId);
+            // only now is the customer's message safe to drop from the stream
+            for (AggregationStore.BufferedMessage m : buffered) {
+                acknowledge(m.stream(), m.recordId());
+            }
+            aggregationStore.clearProgress(buffered);
 
         } catch (Exception e) {
             log.error("❌ Error sending aggregated reply", e);
+            retryReply(key, buffered, platform, userId, chatUserId, e);
+        }
+    }
+
+    /**
+     * Puts a window whose reply failed back into the store with backoff. Once its
+     * records are out of attempts they are dead-lettered and acknowledged instead.
+     */
+    private void retryReply(String key, List<AggregationStore.BufferedMessage> buffered, PlatformType platform, Long userId, String chatUserId, Exception error) {
+        if (buffered == null || buffered.isEmpty()) return;
+
+        try {
+            long attempts = 0;
+            for (AggregationStore.BufferedMessage m : buffered) {
+                attempts = Math.max(attempts, deadLetterService.recordFailure(m.stream(), m.recordId()));
+            }
+
+            if (!deadLetterService.isExhausted(attempts)) {
+                aggregationStore.reopen(platform, userId, chatUserId, buffered, deadLetterService.backoffMs(attempts));
+                return;
+            }
+
+            for (AggregationStore.BufferedMessage m : buffered) {
+                Map<String, String> body = Map.of(
+                        "userId", String.valueOf(userId),
+                        "chatUserId", chatUserId,
+                        "message", m.text()
+                );
+                deadLetterService.deadLetter(m.stream(), m.recordId(), body, attempts, error.getMessage());
+                acknowledge(m.stream(), m.recordId());
+            }
+            aggregationStore.clearProgress(buffered);
+        } catch (Exception e) {
+            // records stay pending, so the reclaimer brings them back later
+            log.error("❌ Could not schedule retry of reply for key={}", key, e);
         }
     }
 
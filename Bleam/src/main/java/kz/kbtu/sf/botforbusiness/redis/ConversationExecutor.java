@@ -0,0 +1,163 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs conversation work as lightweight actors: every conversation key
+ * ({@code userId:chatUserId}) owns a mailbox whose tasks execute strictly one
+ * after another, while different conversations run in parallel on virtual threads.
+ * A mailbox exists only while it has work, so idle chats cost nothing.
+ */
+@Slf4j
+@Component
+public class ConversationExecutor {
+
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Queue<Runnable>> mailboxes = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final int maxQueueDepth;
+
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+    private final AtomicInteger runningTasks = new AtomicInteger();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+
+    public ConversationExecutor(@Value("${chat.executor.max-concurrency:64}") int maxConcurrency,
+                                @Value("${chat.executor.max-queue-depth:100}") int maxQueueDepth,
+                                MeterRegistry meterRegistry) {
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxQueueDepth = maxQueueDepth;
+
+        Gauge.builder("chat.executor.queued", queuedTasks, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("chat.executor.running", runningTasks, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("chat.executor.mailboxes", mailboxes, Map::size).register(meterRegistry);
+        Gauge.builder("chat.executor.completed", completedTasks, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("chat.executor.rejected", rejectedTasks, AtomicLong::get).register(meterRegistry);
+    }
+
+    /**
+     * Enqueues a task into the mailbox of the given conversation.
+     *
+     * @return {@code false} if the mailbox is full and the task was rejected
+     */
+    public boolean submit(String conversationKey, Runnable task) {
+        AtomicReference<Boolean> startDrain = new AtomicReference<>(false);
+        AtomicReference<Boolean> accepted = new AtomicReference<>(true);
+
+        // compute() locks the key's bin, which serialises enqueue against the drainer's dequeue
+        mailboxes.compute(conversationKey, (key, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new ArrayDeque<>();
+                startDrain.set(true);
+            } else if (mailbox.size() >= maxQueueDepth) {
+                accepted.set(false);
+                return mailbox;
+            }
+            mailbox.add(task);
+            return mailbox;
+        });
+
+        if (!accepted.get()) {
+            rejectedTasks.incrementAndGet();
+            log.warn("Mailbox for conversation {} is full ({} tasks), task rejected", conversationKey, maxQueueDepth);
+            return false;
+        }
+
+        queuedTasks.incrementAndGet();
+        if (startDrain.get()) {
+            workers.execute(() -> drain(conversationKey));
+        }
+        return true;
+    }
+
+    private void drain(String conversationKey) {
+        Runnable task = peekNext(conversationKey);
+        while (task != null) {
+            runTask(conversationKey, task);
+            task = pollAndPeekNext(conversationKey);
+        }
+    }
+
+    private Runnable peekNext(String conversationKey) {
+        Queue<Runnable> mailbox = mailboxes.get(conversationKey);
+        return mailbox == null ? null : mailbox.peek();
+    }
+
+    /**
+     * Removes the task that just finished and returns the next one. When the mailbox
+     * becomes empty it is removed, so the next submit starts a fresh drainer.
+     */
+    private Runnable pollAndPeekNext(String conversationKey) {
+        AtomicReference<Runnable> next = new AtomicReference<>();
+        mailboxes.computeIfPresent(conversationKey, (key, mailbox) -> {
+            mailbox.poll();
+            next.set(mailbox.peek());
+            return mailbox.isEmpty() ? null : mailbox;
+        });
+        return next.get();
+    }
+
+    private void runTask(String conversationKey, Runnable task) {
+        queuedTasks.decrementAndGet();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for an execution slot, conversation={}", conversationKey);
+            return;
+        }
+
+        runningTasks.incrementAndGet();
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("❌ Conversation task failed, conversation={}", conversationKey, e);
+        } finally {
+            runningTasks.decrementAndGet();
+            completedTasks.incrementAndGet();
+            permits.release();
+        }
+    }
+
+    public int getQueuedTasks() {
+        return queuedTasks.get();
+    }
+
+    public int getRunningTasks() {
+        return runningTasks.get();
+    }
+
+    public int getActiveConversations() {
+        return mailboxes.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
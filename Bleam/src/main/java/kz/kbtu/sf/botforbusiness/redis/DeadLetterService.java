@@ -0,0 +1,220 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import kz.kbtu.sf.botforbusiness.dto.DeadLetterEntry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded retry policy for stream records. Failed records are retried with
+ * exponential backoff; once they have failed {@code chat.retry.max-attempts}
+ * times they are copied to {@code <stream>.dlq} and acknowledged, so a poison
+ * record neither loops forever nor keeps the pending entries list growing.
+ */
+@Slf4j
+@Component
+public class DeadLetterService {
+
+    public static final String DLQ_SUFFIX = ".dlq";
+
+    private static final String ATTEMPTS_PREFIX = "chat:retry:";
+    private static final String META_PREFIX = "dlq_";
+
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+    private final long dlqMaxLength;
+
+    private final Set<String> knownStreams = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "stream-retry-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public DeadLetterService(StringRedisTemplate redisTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${chat.retry.max-attempts:5}") int maxAttempts,
+                             @Value("${chat.retry.base-backoff-ms:1000}") long baseBackoffMs,
+                             @Value("${chat.retry.max-backoff-ms:60000}") long maxBackoffMs,
+                             @Value("${chat.retry.dlq-max-length:10000}") long dlqMaxLength) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.dlqMaxLength = dlqMaxLength;
+    }
+
+    public void registerStreams(List<String> streams) {
+        knownStreams.addAll(streams);
+    }
+
+    public boolean isExhausted(long attempts) {
+        return attempts >= maxAttempts;
+    }
+
+    /**
+     * Counts one more failed attempt for the record and returns the new total.
+     */
+    public long recordFailure(String stream, RecordId recordId) {
+        String key = ATTEMPTS_PREFIX + stream + ":" + recordId.getValue();
+        Long attempts = redisTemplate.opsForValue().increment(key);
+        redisTemplate.expire(key, Duration.ofDays(1));
+        return attempts == null ? 1 : attempts;
+    }
+
+    public void clearFailures(String stream, RecordId recordId) {
+        redisTemplate.delete(ATTEMPTS_PREFIX + stream + ":" + recordId.getValue());
+    }
+
+    public long backoffMs(long attempts) {
+        long exp = baseBackoffMs << Math.min(20, Math.max(0, attempts - 1));
+        return Math.min(maxBackoffMs, exp);
+    }
+
+    /**
+     * Runs {@code retry} after the backoff for the given attempt count.
+     */
+    public void scheduleRetry(long attempts, Runnable retry) {
+        retryScheduler.schedule(() -> {
+            try {
+                retry.run();
+            } catch (Exception e) {
+                log.error("❌ Scheduled retry failed", e);
+            }
+        }, backoffMs(attempts), TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isOverDeliveryLimit(long deliveryCount) {
+        return deliveryCount > maxAttempts;
+    }
+
+    /**
+     * Copies a record to {@code <stream>.dlq}. The caller acknowledges the original.
+     */
+    public void deadLetter(String stream, RecordId recordId, Map<String, String> body, long attempts, String error) {
+        Map<String, String> entry = new HashMap<>(body);
+        entry.put(META_PREFIX + "stream", stream);
+        entry.put(META_PREFIX + "id", recordId.getValue());
+        entry.put(META_PREFIX + "attempts", String.valueOf(attempts));
+        entry.put(META_PREFIX + "error", error == null ? "" : error);
+        entry.put(META_PREFIX + "failed_at", String.valueOf(System.currentTimeMillis()));
+
+        StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+        ops.add(MapRecord.create(stream + DLQ_SUFFIX, entry), XAddOptions.maxlen(dlqMaxLength).approximateTrimming(true));
+        clearFailures(stream, recordId);
+
+        meterRegistry.counter("chat.retry.dead.lettered", "stream", stream).increment();
+        log.warn("Record {} from stream {} moved to {} after {} attempts: {}", recordId, stream, stream + DLQ_SUFFIX, attempts, error);
+    }
+
+    public List<DeadLetterEntry> list(String stream, String afterId, int count) {
+        requireKnown(stream);
+        Range<String> range = afterId == null || afterId.isBlank()
+                ? Range.unbounded()
+                : Range.rightUnbounded(Range.Bound.exclusive(afterId));
+
+        List<MapRecord<String, String, String>> records = redisTemplate.<String, String>opsForStream()
+                .range(stream + DLQ_SUFFIX, range, Limit.limit().count(count));
+        return records == null ? List.of() : records.stream().map(this::toEntry).toList();
+    }
+
+    /**
+     * Puts dead-lettered records back on their original stream. With no ids the
+     * oldest {@code count} entries are replayed.
+     */
+    public int replay(String stream, List<String> ids, int count) {
+        List<MapRecord<String, String, String>> records = select(stream, ids, count);
+        StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+
+        for (MapRecord<String, String, String> rec : records) {
+            Map<String, String> original = new HashMap<>();
+            rec.getValue().forEach((k, v) -> {
+                if (!k.startsWith(META_PREFIX)) original.put(k, v);
+            });
+            ops.add(StreamRecords.newRecord().in(stream).ofMap(original));
+            ops.delete(stream + DLQ_SUFFIX, rec.getId());
+        }
+        log.info("Replayed {} records from {}", records.size(), stream + DLQ_SUFFIX);
+        return records.size();
+    }
+
+    /**
+     * Deletes dead-lettered records. With no ids the oldest {@code count} entries are purged.
+     */
+    public int purge(String stream, List<String> ids, int count) {
+        List<MapRecord<String, String, String>> records = select(stream, ids, count);
+        if (records.isEmpty()) return 0;
+
+        RecordId[] toDelete = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        Long deleted = redisTemplate.opsForStream().delete(stream + DLQ_SUFFIX, toDelete);
+        log.info("Purged {} records from {}", deleted, stream + DLQ_SUFFIX);
+        return deleted == null ? 0 : deleted.intValue();
+    }
+
+    private List<MapRecord<String, String, String>> select(String stream, List<String> ids, int count) {
+        requireKnown(stream);
+        StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+
+        if (ids == null || ids.isEmpty()) {
+            List<MapRecord<String, String, String>> oldest = ops.range(stream + DLQ_SUFFIX, Range.unbounded(), Limit.limit().count(count));
+            return oldest == null ? List.of() : oldest;
+        }
+        return ids.stream()
+                .map(id -> ops.range(stream + DLQ_SUFFIX, Range.closed(id, id)))
+                .filter(found -> found != null && !found.isEmpty())
+                .map(found -> found.get(0))
+                .toList();
+    }
+
+    private DeadLetterEntry toEntry(MapRecord<String, String, String> rec) {
+        Map<String, String> fields = new HashMap<>();
+        rec.getValue().forEach((k, v) -> {
+            if (!k.startsWith(META_PREFIX)) fields.put(k, v);
+        });
+        Map<String, String> value = rec.getValue();
+        return new DeadLetterEntry(
+                rec.getId().getValue(),
+                value.get(META_PREFIX + "stream"),
+                value.get(META_PREFIX + "id"),
+                Long.parseLong(value.getOrDefault(META_PREFIX + "attempts", "0")),
+                value.get(META_PREFIX + "error"),
+                Long.parseLong(value.getOrDefault(META_PREFIX + "failed_at", "0")),
+                fields
+        );
+    }
+
+    private void requireKnown(String stream) {
+        if (!knownStreams.contains(stream)) {
+            throw new IllegalArgumentException("Unknown stream: " + stream);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        retryScheduler.shutdownNow();
+    }
+}
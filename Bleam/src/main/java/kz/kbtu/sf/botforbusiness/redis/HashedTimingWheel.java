@@ -0,0 +1,136 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Minimal hashed timing wheel driven by one ticker thread.
+ * <p>
+ * Deadlines are read lazily: moving a timer later only means writing its
+ * {@code deadline} field, and the ticker re-buckets it when its old slot comes
+ * round. That keeps rescheduling O(1) and allocation-free, unlike cancelling and
+ * re-submitting a {@code ScheduledFuture} for every incoming message.
+ */
+@Slf4j
+class HashedTimingWheel {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<Queue<Timer>> buckets;
+    private final Queue<Timer> newTimers = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+
+    private volatile boolean running = true;
+    private long currentTick;
+
+    HashedTimingWheel(String name, long tickMillis, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a power of two");
+        }
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayDeque<>());
+        }
+
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    void schedule(Timer timer) {
+        newTimers.add(timer);
+    }
+
+    void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            long targetTick = now / tickMillis;
+
+            transferNewTimers();
+            // catch up on every slot we passed, e.g. after a GC pause
+            while (currentTick <= targetTick) {
+                expireBucket(currentTick, now);
+                currentTick++;
+            }
+
+            try {
+                Thread.sleep(tickMillis - (System.currentTimeMillis() % tickMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("Timing wheel {} stopped.", worker.getName());
+    }
+
+    private void transferNewTimers() {
+        Timer timer;
+        while ((timer = newTimers.poll()) != null) {
+            place(timer);
+        }
+    }
+
+    private void place(Timer timer) {
+        long tick = Math.max(timer.deadline / tickMillis, currentTick);
+        buckets.get((int) (tick & mask)).add(timer);
+    }
+
+    private void expireBucket(long tick, long now) {
+        Queue<Timer> bucket = buckets.get((int) (tick & mask));
+        int size = bucket.size();
+        for (int i = 0; i < size; i++) {
+            Timer timer = bucket.poll();
+            if (timer.cancelled) {
+                continue;
+            }
+            if (timer.deadline > now) {
+                // pushed back (or a later lap): re-bucket by its current deadline
+                placeLater(timer, tick);
+                continue;
+            }
+            try {
+                if (!timer.expire(now)) {
+                    placeLater(timer, tick);
+                }
+            } catch (Exception e) {
+                log.error("❌ Timer expiry failed", e);
+            }
+        }
+    }
+
+    private void placeLater(Timer timer, long processingTick) {
+        long tick = Math.max(timer.deadline / tickMillis, processingTick + 1);
+        buckets.get((int) (tick & mask)).add(timer);
+    }
+
+    abstract static class Timer {
+
+        volatile long deadline;
+        volatile boolean cancelled;
+
+        Timer(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Called on the ticker thread once {@code deadline} has passed.
+         *
+         * @return {@code true} if the timer is finished, {@code false} to keep it
+         * scheduled at its (possibly moved) deadline
+         */
+        abstract boolean expire(long now);
+    }
+}
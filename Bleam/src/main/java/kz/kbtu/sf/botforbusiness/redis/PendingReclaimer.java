@@ -0,0 +1,200 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.lettuce.core.XAutoClaimArgs;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import io.lettuce.core.models.stream.ClaimedMessages;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rescues stream records stuck in the pending list of consumers that are gone:
+ * readers that crashed, nodes that were redeployed, or names abandoned after a
+ * connection error. Idle entries are moved over with XAUTOCLAIM and fed back
+ * through the owning pool with their delivery count; consumer names that hold
+ * nothing and have been idle for long are removed from the group.
+ */
+@Slf4j
+@Component
+public class PendingReclaimer {
+
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final long minIdleMs;
+    private final int batchSize;
+    private final long staleConsumerMs;
+    private final long intervalMs;
+
+    private final String reclaimerName = "reclaimer-" + UUID.randomUUID();
+    private final List<StreamConsumer> pools = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicLong> pelSizes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pending-reclaimer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter reclaimed;
+    private final Counter deletedConsumers;
+
+    public PendingReclaimer(StringRedisTemplate redisTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${chat.reclaim.min-idle-ms:300000}") long minIdleMs,
+                            @Value("${chat.reclaim.batch-size:100}") int batchSize,
+                            @Value("${chat.reclaim.stale-consumer-ms:3600000}") long staleConsumerMs,
+                            @Value("${chat.reclaim.interval-ms:30000}") long intervalMs) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.minIdleMs = minIdleMs;
+        this.batchSize = batchSize;
+        this.staleConsumerMs = staleConsumerMs;
+        this.intervalMs = intervalMs;
+        this.reclaimed = meterRegistry.counter("chat.reclaim.records");
+        this.deletedConsumers = meterRegistry.counter("chat.reclaim.deleted.consumers");
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::reclaimAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void register(StreamConsumer pool) {
+        pools.add(pool);
+        for (String stream : pool.getStreams()) {
+            AtomicLong size = pelSizes.computeIfAbsent(stream, s -> {
+                AtomicLong gauge = new AtomicLong();
+                Gauge.builder("chat.reclaim.pel.size", gauge, AtomicLong::get).tag("stream", s).register(meterRegistry);
+                return gauge;
+            });
+            size.set(0);
+        }
+    }
+
+    private void reclaimAll() {
+        for (StreamConsumer pool : pools) {
+            if (!pool.isRunning()) continue;
+            for (String stream : pool.getStreams()) {
+                try {
+                    reclaim(pool, stream);
+                    removeStaleConsumers(pool, stream);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.warn("Pending reclaim for stream {} failed: {}", stream, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void reclaim(StreamConsumer pool, String stream) throws Exception {
+        StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+
+        PendingMessagesSummary summary = ops.pending(stream, pool.getGroup());
+        pelSizes.get(stream).set(summary == null ? 0 : summary.getTotalPendingMessages());
+        if (summary == null || summary.getTotalPendingMessages() == 0) return;
+
+        String cursor = "0-0";
+        do {
+            ClaimedMessages<byte[], byte[]> claimed = autoClaim(stream, pool.getGroup(), cursor);
+            if (claimed == null || claimed.getMessages().isEmpty()) {
+                cursor = claimed == null ? "0-0" : claimed.getId();
+                continue;
+            }
+
+            Map<String, Long> deliveryCounts = deliveryCounts(ops, stream, pool.getGroup(), claimed);
+            for (var message : claimed.getMessages()) {
+                Map<String, String> body = new HashMap<>();
+                message.getBody().forEach((k, v) ->
+                        body.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+
+                MapRecord<String, String, String> rec = StreamRecords.newRecord()
+                        .in(stream)
+                        .withId(RecordId.of(message.getId()))
+                        .ofMap(body);
+                pool.redeliver(rec, deliveryCounts.getOrDefault(message.getId(), 2L));
+                reclaimed.increment();
+            }
+            log.info("Reclaimed {} idle records from stream {} for pool {}", claimed.getMessages().size(), stream, pool.getName());
+            cursor = claimed.getId();
+        } while (!"0-0".equals(cursor));
+    }
+
+    private ClaimedMessages<byte[], byte[]> autoClaim(String stream, String group, String cursor) {
+        // Spring Data Redis has no XAUTOCLAIM yet, so go through the native Lettuce connection
+        return redisTemplate.execute((RedisCallback<ClaimedMessages<byte[], byte[]>>) connection -> {
+            @SuppressWarnings("unchecked")
+            RedisClusterAsyncCommands<byte[], byte[]> commands =
+                    (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            XAutoClaimArgs<byte[]> args = XAutoClaimArgs.Builder
+                    .xautoclaim(io.lettuce.core.Consumer.from(bytes(group), bytes(reclaimerName)), Duration.ofMillis(minIdleMs), cursor)
+                    .count(batchSize);
+            try {
+                return commands.xautoclaim(bytes(stream), args).get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("XAUTOCLAIM on " + stream + " failed", e);
+            }
+        });
+    }
+
+    private Map<String, Long> deliveryCounts(StreamOperations<String, String, String> ops, String stream, String group,
+                                             ClaimedMessages<byte[], byte[]> claimed) {
+        List<? extends io.lettuce.core.StreamMessage<byte[], byte[]>> messages = claimed.getMessages();
+        PendingMessages pending = ops.pending(stream, Consumer.from(group, reclaimerName),
+                Range.closed(messages.get(0).getId(), messages.get(messages.size() - 1).getId()), messages.size());
+
+        Map<String, Long> counts = new HashMap<>();
+        pending.forEach(p -> counts.put(p.getIdAsString(), p.getTotalDeliveryCount()));
+        return counts;
+    }
+
+    private void removeStaleConsumers(StreamConsumer pool, String stream) {
+        StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+        Set<String> ownNames = pool.getConsumerNames();
+
+        StreamInfo.XInfoConsumers consumers = ops.consumers(stream, pool.getGroup());
+        consumers.forEach(consumer -> {
+            String consumerName = consumer.consumerName();
+            if (ownNames.contains(consumerName) || reclaimerName.equals(consumerName)) return;
+            // entries still owned by the consumer are reclaimed first, it is dropped on a later pass
+            if (consumer.pendingCount() > 0 || consumer.idleTimeMs() < staleConsumerMs) return;
+
+            ops.deleteConsumer(stream, Consumer.from(pool.getGroup(), consumerName));
+            deletedConsumers.increment();
+            log.info("Deleted stale consumer {} from group {} on stream {}", consumerName, pool.getGroup(), stream);
+        });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+}
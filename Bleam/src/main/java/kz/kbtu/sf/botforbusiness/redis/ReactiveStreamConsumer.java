@@ -0,0 +1,176 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.stream.StreamReceiver;
+import org.springframework.data.redis.stream.StreamReceiver.StreamReceiverOptions;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Non-blocking alternative to {@link StreamConsumerPool} built on
+ * {@link StreamReceiver}. All streams of all pools share the reactive Lettuce
+ * connection, so no thread sits in a blocking XREADGROUP; records are only
+ * fetched while the lanes have demand for them.
+ * <p>
+ * Records are grouped into a fixed number of lanes by partition key and each
+ * lane handles one record at a time on a virtual thread, which keeps every
+ * chat in order while different chats run in parallel.
+ */
+@Slf4j
+public class ReactiveStreamConsumer implements StreamConsumer {
+
+    private final String name;
+    private final ReactiveRedisConnectionFactory connectionFactory;
+    private final String group;
+    private final List<String> streams;
+    private final Function<MapRecord<String, String, String>, String> partitionKey;
+    private final RecordHandler handler;
+    private final int batchSize;
+    private final int laneCount;
+
+    private final String consumerName = "consumer-" + UUID.randomUUID();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final Sinks.Many<Delivery> redeliveries = Sinks.many().unicast().onBackpressureBuffer();
+    private volatile boolean running;
+    private Disposable subscription;
+    private ExecutorService workers;
+
+    ReactiveStreamConsumer(String name,
+                           ReactiveRedisConnectionFactory connectionFactory,
+                           String group,
+                           List<String> streams,
+                           Function<MapRecord<String, String, String>, String> partitionKey,
+                           RecordHandler handler,
+                           int batchSize,
+                           int laneCount,
+                           MeterRegistry meterRegistry) {
+        this.name = name;
+        this.connectionFactory = connectionFactory;
+        this.group = group;
+        this.streams = List.copyOf(streams);
+        this.partitionKey = partitionKey;
+        this.handler = handler;
+        this.batchSize = Math.max(1, batchSize);
+        this.laneCount = Math.max(1, laneCount);
+
+        Gauge.builder("chat.consumers.workers", this, c -> c.laneCount).tag("pool", name).register(meterRegistry);
+        Gauge.builder("chat.consumers.backlog", inFlight, AtomicLong::get).tag("pool", name).register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        workers = Executors.newVirtualThreadPerTaskExecutor();
+        Scheduler scheduler = Schedulers.fromExecutorService(workers, name + "-workers");
+
+        StreamReceiver<String, MapRecord<String, String, String>> receiver = StreamReceiver.create(connectionFactory,
+                StreamReceiverOptions.builder()
+                        .pollTimeout(Duration.ofSeconds(2))
+                        .batchSize(batchSize)
+                        .build());
+
+        Flux<Delivery> fresh = Flux.merge(streams.stream()
+                        .map(stream -> receiver.receive(Consumer.from(group, consumerName), StreamOffset.create(stream, ReadOffset.lastConsumed())))
+                        .toList())
+                .map(rec -> new Delivery(rec, 1))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .filter(e -> running)
+                        .doBeforeRetry(signal -> log.warn("Redis connection issue in {} reactive consumer — resubscribing: {}",
+                                name, signal.failure().getMessage())));
+
+        // one group per lane and as many concurrent groups as lanes, so no group ever waits for a slot
+        subscription = Flux.merge(fresh, redeliveries.asFlux())
+                .doOnNext(delivery -> inFlight.incrementAndGet())
+                .groupBy(delivery -> laneIndex(delivery.rec()), batchSize)
+                .flatMap(lane -> lane.concatMap(delivery -> Mono.fromRunnable(() -> handle(delivery)).subscribeOn(scheduler)), laneCount)
+                .subscribe(null, e -> log.error("{} reactive consumer terminated: {}", name, e.getMessage(), e));
+
+        log.info("{} reactive consumer started on streams {} with {} lanes", name, streams, laneCount);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (subscription != null) subscription.dispose();
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(2, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("{} reactive consumer stopped.", name);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public String getGroup() {
+        return group;
+    }
+
+    @Override
+    public List<String> getStreams() {
+        return streams;
+    }
+
+    @Override
+    public Set<String> getConsumerNames() {
+        return Set.of(consumerName);
+    }
+
+    @Override
+    public void redeliver(MapRecord<String, String, String> rec, long deliveryCount) {
+        redeliveries.emitNext(new Delivery(rec, deliveryCount), Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+    }
+
+    private void handle(Delivery delivery) {
+        MapRecord<String, String, String> rec = delivery.rec();
+        try {
+            handler.handle(rec, delivery.deliveryCount());
+        } catch (Exception e) {
+            log.error("Error processing record from stream {} id={}: {}", rec.getStream(), rec.getId(), e.getMessage(), e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private int laneIndex(MapRecord<String, String, String> rec) {
+        String key = partitionKey.apply(rec);
+        return key == null ? 0 : Math.floorMod(key.hashCode(), laneCount);
+    }
+
+    private record Delivery(MapRecord<String, String, String> rec, long deliveryCount) {}
+}
@@ -0,0 +1,166 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides when the messages a chat user sends in quick succession should be
+ * answered as one batch: once the user has been quiet for the tenant's quiet
+ * period, the max-wait cap since the first message is reached, or a message
+ * looks complete (ends with a question mark or is long enough to answer on its own).
+ */
+@Slf4j
+@Component
+public class ReplyDebouncer {
+
+    private final long quietPeriodMs;
+    private final long maxWaitMs;
+    private final int longMessageChars;
+    private final Map<Long, Long> tenantQuietPeriods;
+
+    private final HashedTimingWheel wheel;
+    private final Map<String, PendingBatch> pending = new ConcurrentHashMap<>();
+
+    private final Timer addedLatency;
+    private final Counter immediateFlushes;
+    private final Counter cappedFlushes;
+
+    public ReplyDebouncer(@Value("${chat.debounce.quiet-period-ms:1500}") long quietPeriodMs,
+                          @Value("${chat.debounce.max-wait-ms:8000}") long maxWaitMs,
+                          @Value("${chat.debounce.long-message-chars:200}") int longMessageChars,
+                          @Value("${chat.debounce.tenant-quiet-period-ms:}") String tenantQuietPeriods,
+                          @Value("${chat.debounce.tick-ms:50}") long tickMs,
+                          MeterRegistry meterRegistry) {
+        this.quietPeriodMs = quietPeriodMs;
+        this.maxWaitMs = maxWaitMs;
+        this.longMessageChars = longMessageChars;
+        this.tenantQuietPeriods = parseTenantOverrides(tenantQuietPeriods);
+        this.wheel = new HashedTimingWheel("reply-debounce-wheel", tickMs, 512);
+
+        this.addedLatency = Timer.builder("chat.debounce.added.latency")
+                .description("Time between a conversation's last message and the release of its batch")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.immediateFlushes = meterRegistry.counter("chat.debounce.flush", "reason", "complete");
+        this.cappedFlushes = meterRegistry.counter("chat.debounce.flush", "reason", "max-wait");
+    }
+
+    /**
+     * Registers a message for the conversation's window. {@code onFlush} runs on
+     * the timer thread when the window closes, so it must only hand the work off;
+     * the messages themselves are kept by {@link AggregationStore}.
+     */
+    public void offer(String conversationKey, Long tenantId, String message, Runnable onFlush) {
+        long now = System.currentTimeMillis();
+        boolean complete = looksComplete(message);
+
+        PendingBatch batch = pending.compute(conversationKey, (key, existing) -> {
+            PendingBatch b = existing != null ? existing : new PendingBatch(key, now, onFlush);
+            b.messageCount++;
+            b.lastMessageAt = now;
+            b.deadline = complete ? now : Math.min(now + quietPeriodFor(tenantId), b.firstMessageAt + maxWaitMs);
+            return b;
+        });
+
+        if (complete) {
+            immediateFlushes.increment();
+            batch.expire(now);
+        } else if (batch.messageCount == 1) {
+            wheel.schedule(batch);
+        }
+    }
+
+    private boolean looksComplete(String message) {
+        String trimmed = message == null ? "" : message.trim();
+        if (trimmed.length() >= longMessageChars) return true;
+        return trimmed.endsWith("?") || trimmed.endsWith("？");
+    }
+
+    private long quietPeriodFor(Long tenantId) {
+        return tenantQuietPeriods.getOrDefault(tenantId, quietPeriodMs);
+    }
+
+    /**
+     * Parses overrides in the form {@code userId:millis,userId:millis}.
+     */
+    private static Map<Long, Long> parseTenantOverrides(String raw) {
+        Map<Long, Long> overrides = new HashMap<>();
+        if (raw == null || raw.isBlank()) return overrides;
+
+        for (String entry : raw.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                log.warn("Ignoring malformed debounce override '{}'", entry);
+                continue;
+            }
+            try {
+                overrides.put(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring malformed debounce override '{}'", entry);
+            }
+        }
+        return overrides;
+    }
+
+    @PreDestroy
+    public void stop() {
+        wheel.stop();
+    }
+
+    private final class PendingBatch extends HashedTimingWheel.Timer {
+
+        private final String conversationKey;
+        private final long firstMessageAt;
+        private final Runnable onFlush;
+        private int messageCount;
+        private long lastMessageAt;
+
+        private PendingBatch(String conversationKey, long firstMessageAt, Runnable onFlush) {
+            super(firstMessageAt);
+            this.conversationKey = conversationKey;
+            this.firstMessageAt = firstMessageAt;
+            this.onFlush = onFlush;
+        }
+
+        @Override
+        boolean expire(long now) {
+            long[] lastAt = new long[1];
+
+            // a message may have moved the deadline since the wheel looked at it
+            boolean removed = pending.computeIfPresent(conversationKey, (key, current) -> {
+                if (current != this) return current;
+                if (deadline > now) return current;
+                lastAt[0] = lastMessageAt;
+                return null;
+            }) == null && lastAt[0] > 0;
+
+            if (!removed) {
+                // either still waiting, or already flushed through another path
+                return pending.get(conversationKey) != this;
+            }
+
+            cancelled = true;
+            if (now - firstMessageAt >= maxWaitMs) {
+                cappedFlushes.increment();
+            }
+            addedLatency.record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - lastAt[0])));
+
+            try {
+                onFlush.run();
+            } catch (Exception e) {
+                log.error("❌ Error flushing debounced batch for {}", conversationKey, e);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import kz.kbtu.sf.botforbusiness.model.PlatformType;
+import kz.kbtu.sf.botforbusiness.service.ChatPrompt;
+import kz.kbtu.sf.botforbusiness.service.LlmClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Delivers a model reply while it is being generated: the raw deltas go to the
+ * owner's dashboard over STOMP ({@code /user/queue/chat-stream}) and complete
+ * sentences go to the chat through the platform's outgoing stream, so the
+ * customer sees the first part of a long answer without waiting for the rest.
+ */
+@Slf4j
+@Component
+public class ReplyStreamer {
+
+    private static final String DASHBOARD_DESTINATION = "/queue/chat-stream";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final boolean enabled;
+    private final int minChunkChars;
+
+    public ReplyStreamer(SimpMessagingTemplate messagingTemplate,
+                         @Value("${chat.streaming.enabled:true}") boolean enabled,
+                         @Value("${chat.streaming.min-chunk-chars:120}") int minChunkChars) {
+        this.messagingTemplate = messagingTemplate;
+        this.enabled = enabled;
+        this.minChunkChars = minChunkChars;
+    }
+
+    /**
+     * Generates the reply, sends it to the chat and returns the text that was
+     * sent, which is what the caller should persist.
+     */
+    public String reply(LlmClient model, ChatPrompt prompt,
+                        PlatformType platform, Long userId, String chatUserId,
+                        BaseRedisListener.RedisResponseSender sender) {
+        if (!enabled) {
+            String reply = model.complete(prompt);
+            if (reply == null) reply = "";
+            sender.send(chatUserId, reply, userId);
+            publish(platform, userId, chatUserId, Map.of("text", reply, "done", true));
+            return reply;
+        }
+
+        SentenceChunker chunker = new SentenceChunker(minChunkChars);
+        int[] chunksSent = {0};
+        try {
+            model.stream(prompt, delta -> {
+                publish(platform, userId, chatUserId, Map.of("delta", delta, "done", false));
+                String chunk = chunker.append(delta);
+                if (chunk != null) {
+                    sender.send(chatUserId, chunk, userId);
+                    chunksSent[0]++;
+                }
+            });
+        } catch (RuntimeException e) {
+            // nothing reached the chat yet, so the whole reply can safely be retried
+            if (chunksSent[0] == 0) throw e;
+            log.warn("Reply stream for {}:{} broke after {} chunks, keeping what was sent: {}",
+                    userId, chatUserId, chunksSent[0], e.getMessage());
+        }
+
+        String rest = chunker.drain();
+        if (!rest.isEmpty() || chunksSent[0] == 0) {
+            sender.send(chatUserId, rest, userId);
+        }
+
+        String reply = chunker.text();
+        publish(platform, userId, chatUserId, Map.of("text", reply, "done", true));
+        return reply;
+    }
+
+    private void publish(PlatformType platform, Long userId, String chatUserId, Map<String, Object> event) {
+        try {
+            Map<String, Object> payload = new HashMap<>(event);
+            payload.put("platform", platform.name());
+            payload.put("chatUserId", chatUserId);
+            messagingTemplate.convertAndSendToUser(String.valueOf(userId), DASHBOARD_DESTINATION, payload);
+        } catch (Exception e) {
+            // the dashboard view is best effort, the chat itself must not fail over it
+            log.debug("Could not publish reply stream event for {}:{}: {}", userId, chatUserId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+/**
+ * Collects streamed text and cuts it into chunks that end on a sentence
+ * boundary and are at least {@code minChars} long, so a chat receives a few
+ * readable messages rather than one per token.
+ */
+final class SentenceChunker {
+
+    private final int minChars;
+    private final StringBuilder pending = new StringBuilder();
+    private final StringBuilder all = new StringBuilder();
+
+    SentenceChunker(int minChars) {
+        this.minChars = Math.max(1, minChars);
+    }
+
+    /**
+     * Adds a delta and returns the next chunk once one is complete, or null.
+     */
+    String append(String delta) {
+        all.append(delta);
+        pending.append(delta);
+        if (pending.length() < minChars) return null;
+
+        int cut = lastBoundary();
+        if (cut < minChars) return null;
+
+        String chunk = pending.substring(0, cut).trim();
+        pending.delete(0, cut);
+        return chunk.isEmpty() ? null : chunk;
+    }
+
+    /**
+     * Returns whatever has not been handed out yet.
+     */
+    String drain() {
+        String rest = pending.toString().trim();
+        pending.setLength(0);
+        return rest;
+    }
+
+    String text() {
+        return all.toString().trim();
+    }
+
+    private int lastBoundary() {
+        // the punctuation must be followed by whitespace, otherwise "3.5" or "e.g" would split
+        for (int i = pending.length() - 2; i >= 0; i--) {
+            char c = pending.charAt(i);
+            if (c == '\n') return i + 1;
+            if ((c == '.' || c == '!' || c == '?' || c == '…') && Character.isWhitespace(pending.charAt(i + 1))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,45 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import org.springframework.data.redis.connection.stream.MapRecord;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A consumer-group reader for one or more streams that hands records to a
+ * {@link RecordHandler}, keeping records with the same partition key in order.
+ * Records are never acknowledged here; that is up to the handler.
+ */
+public interface StreamConsumer {
+
+    void start();
+
+    void stop();
+
+    String getName();
+
+    boolean isRunning();
+
+    String getGroup();
+
+    List<String> getStreams();
+
+    /**
+     * Consumer names this reader currently uses in the group.
+     */
+    Set<String> getConsumerNames();
+
+    /**
+     * Feeds a record that was claimed from another consumer, or is being
+     * retried, back in, so it is handled exactly like a freshly read one.
+     */
+    void redeliver(MapRecord<String, String, String> rec, long deliveryCount) throws InterruptedException;
+
+    @FunctionalInterface
+    interface RecordHandler {
+        /**
+         * @param deliveryCount how many times the group has handed this record out, 1 on first read
+         */
+        void handle(MapRecord<String, String, String> rec, long deliveryCount);
+    }
+}
@@ -0,0 +1,390 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Group consumer for one or more Redis streams that spreads records over
+ * worker lanes by a partition key (normally {@code userId:chatUserId}), so
+ * different chats are processed in parallel while each chat stays in order.
+ * <p>
+ * Several readers share the group and block in XREADGROUP concurrently; only
+ * handing a batch to the lanes happens under a lock. Two batches read at the
+ * same moment may reach the lanes in either order, which the aggregation
+ * window absorbs, since it orders a chat's messages by record id. The number
+ * of lanes follows the group's lag between the configured bounds and is
+ * changed only once every lane has drained, so a resize never reorders a chat.
+ * Lanes are never interrupted: a retired lane finishes the record in hand and
+ * exits, so a handler is not cut off in the middle of a Redis call.
+ */
+@Slf4j
+public class StreamConsumerPool implements StreamConsumer {
+
+    // how often an idle lane checks whether it was retired
+    private static final long LANE_POLL_MS = 200;
+
+    private final String name;
+    private final StringRedisTemplate redisTemplate;
+    private final String group;
+    private final List<String> streams;
+    private final Function<MapRecord<String, String, String>, String> partitionKey;
+    private final RecordHandler handler;
+
+    private final int readers;
+    private final int batchSize;
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final int recordsPerWorker;
+    private final long scaleIntervalMs;
+
+    private final ReentrantLock dispatchLock = new ReentrantLock(true);
+    private final List<Thread> readerThreads = new ArrayList<>();
+    private final Set<String> consumerNames = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lag = new AtomicLong();
+    private volatile List<Lane> lanes = List.of();
+    private volatile boolean running;
+    private Thread scaler;
+
+    StreamConsumerPool(String name,
+                       StringRedisTemplate redisTemplate,
+                       String group,
+                       List<String> streams,
+                       Function<MapRecord<String, String, String>, String> partitionKey,
+                       RecordHandler handler,
+                       int readers,
+                       int batchSize,
+                       int minWorkers,
+                       int maxWorkers,
+                       int recordsPerWorker,
+                       long scaleIntervalMs,
+                       MeterRegistry meterRegistry) {
+        this.name = name;
+        this.redisTemplate = redisTemplate;
+        this.group = group;
+        this.streams = List.copyOf(streams);
+        this.partitionKey = partitionKey;
+        this.handler = handler;
+        this.readers = readers;
+        this.batchSize = batchSize;
+        this.minWorkers = minWorkers;
+        this.maxWorkers = Math.max(minWorkers, maxWorkers);
+        this.recordsPerWorker = recordsPerWorker;
+        this.scaleIntervalMs = scaleIntervalMs;
+
+        Gauge.builder("chat.consumers.workers", this, p -> p.lanes.size()).tag("pool", name).register(meterRegistry);
+        Gauge.builder("chat.consumers.backlog", this, StreamConsumerPool::backlog).tag("pool", name).register(meterRegistry);
+        Gauge.builder("chat.consumers.lag", lag, AtomicLong::get).tag("pool", name).register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        lanes = startLanes(minWorkers);
+
+        for (int i = 0; i < readers; i++) {
+            Thread reader = new Thread(this::readLoop, name + "-reader-" + i);
+            reader.setDaemon(true);
+            reader.start();
+            readerThreads.add(reader);
+        }
+
+        scaler = new Thread(this::scaleLoop, name + "-scaler");
+        scaler.setDaemon(true);
+        scaler.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        readerThreads.forEach(Thread::interrupt);
+        if (scaler != null) scaler.interrupt();
+        for (Thread reader : readerThreads) {
+            try {
+                reader.join(2000);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        stopLanes(lanes);
+        log.info("{} consumer pool stopped.", name);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public String getGroup() {
+        return group;
+    }
+
+    @Override
+    public List<String> getStreams() {
+        return streams;
+    }
+
+    @Override
+    public Set<String> getConsumerNames() {
+        return Set.copyOf(consumerNames);
+    }
+
+    @Override
+    public void redeliver(MapRecord<String, String, String> rec, long deliveryCount) throws InterruptedException {
+        dispatchLock.lockInterruptibly();
+        try {
+            List<Lane> current = lanes;
+            current.get(laneIndex(rec, current.size())).submit(new Delivery(rec, deliveryCount));
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    private void readLoop() {
+        String consumerName = "consumer-" + UUID.randomUUID();
+        consumerNames.add(consumerName);
+        // generic arrays cannot be created, and read() only takes varargs
+        @SuppressWarnings("unchecked")
+        StreamOffset<String>[] offsets = streams.stream()
+                .map(stream -> StreamOffset.create(stream, ReadOffset.lastConsumed()))
+                .toArray(StreamOffset[]::new);
+
+        while (running) {
+            long backoffMs = 0;
+            try {
+                StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+
+                // Block up to 2 seconds waiting for messages; returns null or empty if none.
+                // Not under the lock, so the other readers keep reading meanwhile
+                List<MapRecord<String, String, String>> messages = ops.read(
+                        Consumer.from(group, consumerName),
+                        StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                        offsets
+                );
+
+                if (messages != null && !messages.isEmpty()) {
+                    dispatch(messages);
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IllegalStateException | RedisSystemException ex) {
+                // Lettuce / connection related exceptions, connection closed, factory stopped etc.
+                log.warn("Redis connection issue in {} consumer pool — will retry in 5s: {}", name, ex.getMessage());
+                backoffMs = 5000;
+                // regenerate consumer name to avoid stale state when reconnecting;
+                // whatever the old name still holds is picked up by PendingReclaimer
+                consumerNames.remove(consumerName);
+                consumerName = "consumer-" + UUID.randomUUID();
+                consumerNames.add(consumerName);
+            } catch (Exception e) {
+                log.error("Unexpected error polling redis streams {}: {}", streams, e.getMessage(), e);
+                backoffMs = 2000;
+            }
+
+            if (backoffMs > 0) {
+                sleepUnchecked(backoffMs);
+            }
+        }
+
+        consumerNames.remove(consumerName);
+        log.info("{} reader {} stopped.", name, Thread.currentThread().getName());
+    }
+
+    private void dispatch(List<MapRecord<String, String, String>> messages) throws InterruptedException {
+        dispatchLock.lockInterruptibly();
+        try {
+            List<Lane> current = lanes;
+            for (MapRecord<String, String, String> rec : messages) {
+                current.get(laneIndex(rec, current.size())).submit(new Delivery(rec, 1));
+            }
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    private int laneIndex(MapRecord<String, String, String> rec, int laneCount) {
+        String key = partitionKey.apply(rec);
+        return key == null ? 0 : Math.floorMod(key.hashCode(), laneCount);
+    }
+
+    private void scaleLoop() {
+        while (running) {
+            sleepUnchecked(scaleIntervalMs);
+            if (!running) break;
+
+            try {
+                long undelivered = streams.stream().mapToLong(this::undeliveredCount).sum();
+                long total = undelivered + backlog();
+                lag.set(total);
+
+                int target = (int) Math.min(maxWorkers, Math.max(minWorkers, (total + recordsPerWorker - 1) / recordsPerWorker));
+                if (target != lanes.size()) {
+                    resize(target);
+                }
+            } catch (Exception e) {
+                log.debug("Lag check for {} failed: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Records not yet delivered to the group: the {@code lag} of XINFO GROUPS
+     * (Redis 7+), or XLEN minus {@code entries-read} when the lag is unknown.
+     * Older servers have neither, so the records after the last delivered id
+     * are counted, but only as far as it takes to reach the maximum lane count.
+     */
+    private long undeliveredCount(String stream) {
+        StreamOperations<String, String, String> ops = redisTemplate.opsForStream();
+        StreamInfo.XInfoGroup info = ops.groups(stream).stream()
+                .filter(g -> group.equals(g.groupName()))
+                .findFirst()
+                .orElse(null);
+        if (info == null) return 0;
+
+        Long lag = asLong(info.getRaw().get("lag"));
+        if (lag != null) return lag;
+
+        Long entriesRead = asLong(info.getRaw().get("entries-read"));
+        if (entriesRead != null) {
+            Long length = ops.size(stream);
+            return length == null ? 0 : Math.max(0, length - entriesRead);
+        }
+
+        long cap = (long) maxWorkers * recordsPerWorker;
+        List<MapRecord<String, String, String>> ahead = ops.range(
+                stream,
+                Range.rightUnbounded(Range.Bound.exclusive(info.lastDeliveredId())),
+                Limit.limit().count((int) Math.min(Integer.MAX_VALUE, cap))
+        );
+        return ahead == null ? 0 : ahead.size();
+    }
+
+    private static Long asLong(Object value) {
+        if (value instanceof Number n) return n.longValue();
+        if (value == null) return null;
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void resize(int target) throws InterruptedException {
+        if (!dispatchLock.tryLock(scaleIntervalMs, TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        try {
+            // lanes only change while empty, otherwise a chat could jump to a lane that runs ahead
+            long deadline = System.currentTimeMillis() + scaleIntervalMs;
+            while (lanes.stream().anyMatch(Lane::isBusy)) {
+                if (System.currentTimeMillis() > deadline) return;
+                Thread.sleep(10);
+            }
+
+            List<Lane> previous = lanes;
+            lanes = startLanes(target);
+            stopLanes(previous);
+            log.info("{} consumer pool resized from {} to {} workers (lag={})", name, previous.size(), target, lag.get());
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    private long backlog() {
+        return lanes.stream().mapToLong(lane -> lane.queue.size()).sum();
+    }
+
+    private List<Lane> startLanes(int count) {
+        List<Lane> created = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Lane lane = new Lane();
+            Thread.ofVirtual().name(name + "-worker-" + i).start(lane::run);
+            created.add(lane);
+        }
+        return List.copyOf(created);
+    }
+
+    /**
+     * Retires the lanes; records still queued (only on shutdown) stay pending
+     * in the group and are reclaimed later.
+     */
+    private void stopLanes(List<Lane> toStop) {
+        toStop.forEach(lane -> lane.closed = true);
+    }
+
+    private void sleepUnchecked(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class Lane {
+
+        private final BlockingQueue<Delivery> queue = new LinkedBlockingQueue<>();
+        // raised at dispatch and lowered once handled, so a record just taken off the queue still counts
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean closed;
+
+        private void submit(Delivery delivery) {
+            pending.incrementAndGet();
+            queue.add(delivery);
+        }
+
+        private void run() {
+            while (!closed) {
+                Delivery delivery;
+                try {
+                    delivery = queue.poll(LANE_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (delivery == null) continue;
+
+                MapRecord<String, String, String> rec = delivery.rec();
+                try {
+                    handler.handle(rec, delivery.deliveryCount());
+                } catch (Exception e) {
+                    log.error("Error processing record from stream {} id={}: {}", rec.getStream(), rec.getId(), e.getMessage(), e);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+        }
+
+        private boolean isBusy() {
+            return pending.get() > 0;
+        }
+    }
+
+    private record Delivery(MapRecord<String, String, String> rec, long deliveryCount) {}
+}
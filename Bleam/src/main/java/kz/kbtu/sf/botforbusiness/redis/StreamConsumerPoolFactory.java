@@ -0,0 +1,82 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Builds the stream consumers for the listeners. {@code chat.ingestion.mode}
+ * picks blocking reader threads ({@link StreamConsumerPool}) or the reactive
+ * {@link ReactiveStreamConsumer}, which adds no threads per stream.
+ */
+@Slf4j
+@Component
+public class StreamConsumerPoolFactory {
+
+    private final StringRedisTemplate redisTemplate;
+    private final ReactiveRedisConnectionFactory reactiveConnectionFactory;
+    private final MeterRegistry meterRegistry;
+    private final PendingReclaimer pendingReclaimer;
+    private final DeadLetterService deadLetterService;
+
+    private final boolean reactive;
+    private final int readers;
+    private final int batchSize;
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final int recordsPerWorker;
+    private final long scaleIntervalMs;
+
+    public StreamConsumerPoolFactory(StringRedisTemplate redisTemplate,
+                                     ReactiveRedisConnectionFactory reactiveConnectionFactory,
+                                     MeterRegistry meterRegistry,
+                                     PendingReclaimer pendingReclaimer,
+                                     DeadLetterService deadLetterService,
+                                     @Value("${chat.ingestion.mode:blocking}") String ingestionMode,
+                                     @Value("${chat.consumers.readers:2}") int readers,
+                                     @Value("${chat.consumers.batch-size:10}") int batchSize,
+                                     @Value("${chat.consumers.min-workers:2}") int minWorkers,
+                                     @Value("${chat.consumers.max-workers:0}") int maxWorkers,
+                                     @Value("${chat.consumers.records-per-worker:20}") int recordsPerWorker,
+                                     @Value("${chat.consumers.scale-interval-ms:5000}") long scaleIntervalMs) {
+        this.redisTemplate = redisTemplate;
+        this.reactiveConnectionFactory = reactiveConnectionFactory;
+        this.meterRegistry = meterRegistry;
+        this.pendingReclaimer = pendingReclaimer;
+        this.deadLetterService = deadLetterService;
+        this.reactive = "reactive".equalsIgnoreCase(ingestionMode.trim());
+        this.readers = Math.max(1, readers);
+        this.batchSize = batchSize;
+        this.minWorkers = Math.max(1, minWorkers);
+        // 0 means "one lane per core"
+        this.maxWorkers = maxWorkers > 0 ? maxWorkers : Runtime.getRuntime().availableProcessors();
+        this.recordsPerWorker = Math.max(1, recordsPerWorker);
+        this.scaleIntervalMs = scaleIntervalMs;
+    }
+
+    public StreamConsumer create(String name,
+                                 String group,
+                                 List<String> streams,
+                                 Function<MapRecord<String, String, String>, String> partitionKey,
+                                 StreamConsumer.RecordHandler handler) {
+        StreamConsumer pool;
+        if (reactive) {
+            pool = new ReactiveStreamConsumer(name, reactiveConnectionFactory, group, streams, partitionKey, handler,
+                    batchSize, maxWorkers, meterRegistry);
+        } else {
+            pool = new StreamConsumerPool(name, redisTemplate, group, streams, partitionKey, handler,
+                    readers, batchSize, minWorkers, maxWorkers, recordsPerWorker, scaleIntervalMs, meterRegistry);
+        }
+        log.info("Created {} consumer for {} on streams {}", reactive ? "reactive" : "blocking", name, streams);
+        pendingReclaimer.register(pool);
+        deadLetterService.registerStreams(streams);
+        return pool;
+    }
+}
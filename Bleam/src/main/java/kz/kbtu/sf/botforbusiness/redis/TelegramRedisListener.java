@@ -1,22 +1,18 @@
 package kz.kbtu.sf.botforbusiness.redis;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import kz.kbtu.sf.botforbusiness.model.PlatformType;
-import kz.kbtu.sf.botforbusiness.repository.UserRepository;
 import kz.kbtu.sf.botforbusiness.service.*;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.RedisSystemException;
 import org.springframework.data.redis.connection.stream.*;
-import org.springframework.data.redis.core.StreamOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 @Slf4j
 @Service
@@ -25,26 +21,36 @@ public class TelegramRedisListener extends BaseRedisListener {
     private final StringRedisTemplate redisTemplate;
     private final TelegramRedisProducer telegramRedisProducer;
     private final ObjectMapper objectMapper;
+    private final StreamConsumerPoolFactory consumerPoolFactory;
 
     private static final String STREAM_IN = "telegram.incoming";
     private static final String GROUP = "chatbot-group";
 
-    private volatile boolean running = true;
-    private Thread pollThread;
+    private StreamConsumer consumerPool;
 
-    public TelegramRedisListener(BotKnowledgeService botKnowledgeService,
-                                 SessionService sessionService,
+    public TelegramRedisListener(SessionService sessionService,
                                  MessageService messageService,
-                                 GeminiService geminiService,
-                                 GPTService gptService,
-                                 UserRepository userRepository,
+                                 LlmRouter llmRouter,
+                                 TenantConfigCache tenantConfigCache,
+                                 ConversationExecutor conversationExecutor,
+                                 ReplyDebouncer replyDebouncer,
+                                 AggregationStore aggregationStore,
+                                 DeadLetterService deadLetterService,
+                                 ReplyStreamer replyStreamer,
+                                 AnswerCache answerCache,
+                                 ChatHistoryService chatHistoryService,
+                                 SingleFlightReplies singleFlightReplies,
+                                 PromptAssembler promptAssembler,
+                                 MeterRegistry meterRegistry,
                                  StringRedisTemplate redisTemplate,
                                  TelegramRedisProducer telegramRedisProducer,
-                                 ObjectMapper objectMapper) {
-        super(botKnowledgeService, sessionService, messageService, geminiService, gptService, userRepository);
+                                 ObjectMapper objectMapper,
+                                 StreamConsumerPoolFactory consumerPoolFactory) {
+        super(sessionService, messageService, llmRouter, tenantConfigCache, conversationExecutor, replyDebouncer, aggregationStore, deadLetterService, replyStreamer, answerCache, chatHistoryService, singleFlightReplies, promptAssembler, meterRegistry);
         this.redisTemplate = redisTemplate;
         this.telegramRedisProducer = telegramRedisProducer;
         this.objectMapper = objectMapper;
+        this.consumerPoolFactory = consumerPoolFactory;
     }
 
     @PostConstruct
@@ -57,88 +63,53 @@ public class TelegramRedisListener extends BaseRedisListener {
             log.info("Group {} may already exist for stream {} (or redis not available yet): {}", GROUP, STREAM_IN, e.getMessage());
         }
 
-        pollThread = new Thread(this::pollLoop, "telegram-redis-listener");
-        pollThread.setDaemon(true);
-        pollThread.start();
+        consumerPool = consumerPoolFactory.create(
+                "telegram-redis-listener",
+                GROUP,
+                List.of(STREAM_IN),
+                rec -> rec.getValue().get("userId") + ":" + rec.getValue().get("chatUserId"),
+                this::processRecord
+        );
+        enableTakeover(PlatformType.TELEGRAM, telegramRedisProducer::sendMessageToUser);
+        consumerPool.start();
     }
 
-    private void pollLoop() {
-        String consumerName = "consumer-" + UUID.randomUUID();
-
-        while (running) {
-            StreamOperations<String, String, String> ops = null;
-            try {
-                ops = redisTemplate.opsForStream();
-
-                // Block up to 2 seconds waiting for messages; returns null or empty if none
-                List<MapRecord<String, String, String>> messages = ops.read(
-                        Consumer.from(GROUP, consumerName),
-                        StreamReadOptions.empty().count(10).block(Duration.ofSeconds(2)),
-                        StreamOffset.create(STREAM_IN, ReadOffset.lastConsumed())
-                );
-
-                if (messages == null || messages.isEmpty()) {
-                    continue;
-                }
-
-                for (MapRecord<String, String, String> rec : messages) {
-                    try {
-                        Map<String, String> body = rec.getValue();
-
-                        Map<String, Object> normalized = Map.of(
-                                "userId", Long.parseLong(body.get("userId")),
-                                "chatUserId", body.get("chatUserId"),
-                                "message", body.get("message")
-                        );
-
-                        String messageJson = objectMapper.writeValueAsString(normalized);
-
-                        // handle message (uses buffering and aggregation)
-                        handleMessage(messageJson, PlatformType.TELEGRAM, telegramRedisProducer::sendMessageToUser);
-
-                        // Acknowledge the message
-                        RecordId id = rec.getId();
-                        ops.acknowledge(STREAM_IN, GROUP, id);
-
-                    } catch (Exception procEx) {
-                        log.error("Error processing single record from stream {} id={}: {}", STREAM_IN, rec.getId(), procEx.getMessage(), procEx);
-                        // don't ack so message remains PENDING for reprocessing
-                    }
-                }
-
-            } catch (IllegalStateException | RedisSystemException ex) {
-                // Lettuce / connection related exceptions, connection closed, factory stopped etc.
-                log.warn("Redis connection issue in TelegramRedisListener — will retry in 5s: {}", ex.getMessage());
-                sleepUnchecked(5000);
-                // regenerate consumer name to avoid stale state when reconnecting
-                consumerName = "consumer-" + UUID.randomUUID();
-            } catch (Exception e) {
-                log.error("Unexpected error polling redis stream {}: {}", STREAM_IN, e.getMessage(), e);
-                sleepUnchecked(2000);
-            }
+    private void processRecord(MapRecord<String, String, String> rec, long deliveryCount) {
+        if (deliveryCount > 1) {
+            log.info("Redelivered record from stream {} id={} (delivery #{})", STREAM_IN, rec.getId(), deliveryCount);
         }
+        if (deadLetterIfOverLimit(rec, deliveryCount)) return;
 
-        log.info("TelegramRedisListener poll loop stopped.");
-    }
+        try {
+            Map<String, String> body = rec.getValue();
 
-    @PreDestroy
-    public void stop() {
-        running = false;
-        if (pollThread != null) {
-            pollThread.interrupt();
-            try {
-                pollThread.join(2000);
-            } catch (InterruptedException ignored) {
-                Thread.currentThread().interrupt();
-            }
+            Map<String, Object> normalized = Map.of(
+                    "userId", Long.parseLong(body.get("userId")),
+                    "chatUserId", body.get("chatUserId"),
+                    "message", body.get("message")
+            );
+
+            String messageJson = objectMapper.writeValueAsString(normalized);
+
+            // handle message (uses buffering and aggregation); acked once the reply is published
+            handleMessage(messageJson, rec.getStream(), rec.getId(), PlatformType.TELEGRAM, telegramRedisProducer::sendMessageToUser);
+
+        } catch (Exception procEx) {
+            log.error("Error processing single record from stream {} id={}: {}", STREAM_IN, rec.getId(), procEx.getMessage(), procEx);
+            // not acked: it stays PENDING until it is retried or dead-lettered
+            retryOrDeadLetter(consumerPool, rec, procEx);
         }
     }
 
-    private void sleepUnchecked(long ms) {
-        try {
-            Thread.sleep(ms);
-        } catch (InterruptedException ignored) {
-            Thread.currentThread().interrupt();
+    @Override
+    protected void acknowledge(String stream, RecordId recordId) {
+        redisTemplate.opsForStream().acknowledge(stream, GROUP, recordId);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (consumerPool != null) {
+            consumerPool.stop();
         }
     }
 }
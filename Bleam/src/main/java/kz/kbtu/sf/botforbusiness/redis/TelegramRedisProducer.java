@@ -45,6 +45,8 @@ public class TelegramRedisProducer {
             log.error("Serialization Error", e);
         } catch (Exception e) {
             log.error("Redis stream publish error", e);
+            // callers acknowledge the incoming record only after a successful publish
+            throw new IllegalStateException("Failed to publish to " + STREAM_OUT, e);
         }
     }
 }
@@ -33,6 +33,8 @@ public class WhatsAppRedisProducer {
             log.debug("Published to '{}' id={}", STREAM_OUT, id);
         } catch (Exception e) {
             log.error("Error publishing to redis stream {}", STREAM_OUT, e);
+            // callers acknowledge the incoming record only after a successful publish
+            throw new IllegalStateException("Failed to publish to " + STREAM_OUT, e);
         }
     }
 }
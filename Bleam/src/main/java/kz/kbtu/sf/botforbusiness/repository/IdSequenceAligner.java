@@ -0,0 +1,49 @@
+package kz.kbtu.sf.botforbusiness.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Moves the id sequences of {@code messages} and {@code sessions} past the ids
+ * those tables already hold from the time they used identity columns, so the
+ * pooled sequence generator never hands out an id that is taken. Only ever
+ * moves a sequence forward, so it is safe with several nodes starting at once.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory") // runs after the schema update has created the tables
+public class IdSequenceAligner implements InitializingBean {
+
+    private static final int ALLOCATION_SIZE = 50;
+    private static final Map<String, String> SEQUENCES = Map.of(
+            "messages_seq", "messages",
+            "sessions_seq", "sessions"
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IdSequenceAligner(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        SEQUENCES.forEach((sequence, table) -> {
+            try {
+                jdbcTemplate.execute("create sequence if not exists " + sequence + " start with 1 increment by " + ALLOCATION_SIZE);
+                Long value = jdbcTemplate.queryForObject(
+                        "select setval('" + sequence + "', greatest((select last_value from " + sequence + "), " +
+                                "(select coalesce(max(id), 0) from " + table + ") + " + ALLOCATION_SIZE + "))",
+                        Long.class);
+                log.info("Sequence {} aligned with table {} at {}", sequence, table, value);
+            } catch (Exception e) {
+                log.warn("Could not align sequence {} with table {}: {}", sequence, table, e.getMessage());
+            }
+        });
+    }
+}
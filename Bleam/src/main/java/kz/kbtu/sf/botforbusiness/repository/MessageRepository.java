@@ -1,12 +1,52 @@
 package kz.kbtu.sf.botforbusiness.repository;
 
+import jakarta.persistence.QueryHint;
+import kz.kbtu.sf.botforbusiness.dto.MessageDTO;
 import kz.kbtu.sf.botforbusiness.model.Message;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
-    List<Message> findAllBySessionIdOrderByTimestampAsc(Long sessionId);
+    List<Message> findBySessionIdOrderByIdDesc(Long sessionId, Pageable pageable);
+
+    @Query("select new kz.kbtu.sf.botforbusiness.dto.MessageDTO(m.id, m.text, m.sender, m.timestamp) from Message m " +
+            "where m.session.id = :sessionId order by m.timestamp desc, m.id desc")
+    List<MessageDTO> findNewest(@Param("sessionId") Long sessionId, Pageable pageable);
+
+    @Query("select new kz.kbtu.sf.botforbusiness.dto.MessageDTO(m.id, m.text, m.sender, m.timestamp) from Message m " +
+            "where m.session.id = :sessionId and (m.timestamp < :timestamp or (m.timestamp = :timestamp and m.id < :id)) " +
+            "order by m.timestamp desc, m.id desc")
+    List<MessageDTO> findBefore(@Param("sessionId") Long sessionId, @Param("timestamp") LocalDateTime timestamp,
+                                @Param("id") Long id, Pageable pageable);
+
+    @Query("select new kz.kbtu.sf.botforbusiness.dto.MessageDTO(m.id, m.text, m.sender, m.timestamp) from Message m " +
+            "where m.session.id = :sessionId and (m.timestamp > :timestamp or (m.timestamp = :timestamp and m.id > :id)) " +
+            "order by m.timestamp asc, m.id asc")
+    List<MessageDTO> findAfter(@Param("sessionId") Long sessionId, @Param("timestamp") LocalDateTime timestamp,
+                               @Param("id") Long id, Pageable pageable);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select new kz.kbtu.sf.botforbusiness.dto.MessageDTO(m.id, m.text, m.sender, m.timestamp) from Message m " +
+            "where m.session.id = :sessionId order by m.timestamp asc, m.id asc")
+    Stream<MessageDTO> streamBySessionId(@Param("sessionId") Long sessionId);
+
+    @Query("select m.timestamp from Message m where m.id = :id and m.session.id = :sessionId")
+    LocalDateTime findTimestamp(@Param("sessionId") Long sessionId, @Param("id") Long id);
+
+    @Query("select m.clientId from Message m where m.clientId in :clientIds")
+    List<String> findExistingClientIds(@Param("clientIds") Collection<String> clientIds);
+
+    @Query("select m.clientId, m.id from Message m where m.clientId in :clientIds")
+    List<Object[]> findIdsByClientIds(@Param("clientIds") Collection<String> clientIds);
 }
@@ -3,13 +3,41 @@ package kz.kbtu.sf.botforbusiness.repository;
 import kz.kbtu.sf.botforbusiness.model.PlatformType;
 import kz.kbtu.sf.botforbusiness.model.Session;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface SessionRepository extends JpaRepository<Session, Long> {
-    Optional<Session> findByChatUserIdAndPlatformType(String chatUserId, PlatformType platformType);
+    Optional<Session> findByOwnerIdAndPlatformTypeAndChatUserId(Long ownerId, PlatformType platformType, String chatUserId);
     List<Session> findByOwnerIdAndPlatformType(Long userId, PlatformType platform);
+    boolean existsByIdAndOwnerId(Long id, Long ownerId);
+
+    /**
+     * Creates the session unless one already exists for the owner, platform and
+     * chat user; safe to call concurrently from several replies or nodes.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into sessions (id, user_id, platform_type, chat_user_id, started_at, ended_at) " +
+            "values (nextval('sessions_seq'), :ownerId, :platformType, :chatUserId, now(), now()) " +
+            "on conflict (user_id, platform_type, chat_user_id) do nothing", nativeQuery = true)
+    int insertIfAbsent(@Param("ownerId") Long ownerId, @Param("platformType") String platformType, @Param("chatUserId") String chatUserId);
+
+    @Query("select s.historySummary from Session s where s.id = :id")
+    String findHistorySummary(@Param("id") Long id);
+
+    @Query("select s.summarizedUpToId from Session s where s.id = :id")
+    Long findSummarizedUpToId(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @Query("update Session s set s.historySummary = :summary, s.summarizedUpToId = :upToId " +
+            "where s.id = :id and (s.summarizedUpToId is null or s.summarizedUpToId < :upToId)")
+    int updateHistorySummary(@Param("id") Long id, @Param("summary") String summary, @Param("upToId") Long upToId);
 }
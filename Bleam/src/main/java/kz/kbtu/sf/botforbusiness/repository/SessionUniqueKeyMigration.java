@@ -0,0 +1,72 @@
+package kz.kbtu.sf.botforbusiness.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Creates {@code uk_sessions_owner_platform_chat}, which the
+ * {@code ON CONFLICT} insert of {@link SessionRepository#insertIfAbsent}
+ * relies on. The schema update cannot add it while the table still holds
+ * duplicate sessions from before, and only logs that it failed, so this first
+ * moves the messages of every duplicate to the oldest session of its chat,
+ * deletes the duplicates and then adds the constraint. The table is locked
+ * for the duration, so nodes starting at once do it one after the other; a
+ * node that finds the constraint in place does nothing.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory") // runs after the schema update has created the tables
+public class SessionUniqueKeyMigration implements InitializingBean {
+
+    private static final String CONSTRAINT = "uk_sessions_owner_platform_chat";
+
+    private static final String DUPLICATES = """
+            select id, first_value(id) over (partition by user_id, platform_type, chat_user_id order by id) as keeper
+            from sessions
+            where user_id is not null and platform_type is not null and chat_user_id is not null
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public SessionUniqueKeyMigration(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            transactionTemplate.executeWithoutResult(status -> migrate());
+        } catch (Exception e) {
+            log.error("Could not add {} to sessions; creating sessions will fail until it exists: {}", CONSTRAINT, e.getMessage());
+        }
+    }
+
+    private void migrate() {
+        if (constraintExists()) return;
+
+        jdbcTemplate.execute("lock table sessions in share row exclusive mode");
+        if (constraintExists()) return;
+
+        int moved = jdbcTemplate.update("with ranked as (" + DUPLICATES + ") " +
+                "update messages m set session_id = r.keeper from ranked r where m.session_id = r.id and r.id <> r.keeper");
+        int deleted = jdbcTemplate.update("with ranked as (" + DUPLICATES + ") " +
+                "delete from sessions s using ranked r where s.id = r.id and r.id <> r.keeper");
+        jdbcTemplate.execute("alter table sessions add constraint " + CONSTRAINT +
+                " unique (user_id, platform_type, chat_user_id)");
+
+        log.info("Added {} after merging {} duplicate sessions ({} messages moved)", CONSTRAINT, deleted, moved);
+    }
+
+    private boolean constraintExists() {
+        Integer count = jdbcTemplate.queryForObject(
+                "select count(*) from pg_constraint where conname = ?", Integer.class, CONSTRAINT);
+        return count != null && count > 0;
+    }
+}
@@ -11,9 +11,9 @@ import org.springframework.web.reactive.function.client.WebClient;
 public class HttpConfig {
 
     @Bean
-    public WebClient webClient(JwtUtil jwtUtil) {
+    public WebClient webClient(ServiceTokenProvider serviceTokenProvider) {
         ExchangeFilterFunction authFilter = (request, next) -> {
-            String token = jwtUtil.generateServiceToken("spring-service");
+            String token = serviceTokenProvider.getToken();
             ClientRequest newReq = ClientRequest.from(request)
                     .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
                     .build();
@@ -51,8 +51,9 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         }
 
         try {
-            if (jwtUtil.validateToken(token, false)) {
-                Claims claims = jwtUtil.getClaims(token, false);
+            // one parse verifies the token with the key its token_type calls for
+            Claims claims = jwtUtil.verify(token);
+            if (!jwtUtil.isServiceToken(claims)) {
                 String subject = claims.getSubject(); // в твоём коде это userId
                 Long userId = null;
                 try {
@@ -77,8 +78,7 @@ public class JwtAuthFilter extends OncePerRequestFilter {
                     auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                     SecurityContextHolder.getContext().setAuthentication(auth);
                 }
-            } else if (jwtUtil.validateToken(token, true)) {
-                Claims claims = jwtUtil.getClaims(token, true);
+            } else {
                 String serviceName = claims.get("service", String.class);
                 if (serviceName == null || serviceName.isBlank()) {
                     serviceName = claims.getSubject(); // fallback на sub
@@ -97,7 +97,6 @@ public class JwtAuthFilter extends OncePerRequestFilter {
                 );
                 auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(auth);
-            } else {
             }
         } catch (Exception ex) {
             log.debug("Token validation error: {}", ex.getMessage());
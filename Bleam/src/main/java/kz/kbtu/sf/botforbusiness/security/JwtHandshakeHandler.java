@@ -38,11 +38,11 @@ public class JwtHandshakeHandler extends DefaultHandshakeHandler {
         if (token == null) return null;
 
         try {
-            if (!jwtUtil.validateToken(token, false)) {
+            Claims claims = jwtUtil.verify(token);
+            if (jwtUtil.isServiceToken(claims)) {
                 return null;
             }
 
-            Claims claims = jwtUtil.getClaims(token, false);
             String subject = claims.getSubject();
             if (subject == null) return null;
 
@@ -1,16 +1,27 @@
 package kz.kbtu.sf.botforbusiness.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SigningKeyResolver;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class JwtUtil {
@@ -27,12 +38,81 @@ public class JwtUtil {
     @Value("${jwt.expiration.service}")
     private long jwtServiceExpirationMs;
 
-    private Key userKey() {
-        return Keys.hmacShaKeyFor(jwtUserSecret.getBytes(StandardCharsets.UTF_8));
+    @Value("${jwt.cache.max-entries:10000}")
+    private long verifiedCacheMaxEntries;
+
+    @Value("${jwt.cache.max-ttl-ms:300000}")
+    private long verifiedCacheMaxTtlMs;
+
+    private final MeterRegistry meterRegistry;
+
+    private Key userKey;
+    private Key serviceKey;
+    private JwtParser parser;
+    private Cache<String, Claims> verifiedTokens;
+
+    public JwtUtil(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
     }
 
-    private Key serviceKey() {
-        return Keys.hmacShaKeyFor(jwtServiceSecret.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Keys and the parser are immutable and thread-safe, so they are built once.
+     * The parser picks the key from the {@code token_type} claim before checking
+     * the signature; a forged type only selects a key the token then fails against.
+     */
+    @PostConstruct
+    public void init() {
+        userKey = Keys.hmacShaKeyFor(jwtUserSecret.getBytes(StandardCharsets.UTF_8));
+        serviceKey = Keys.hmacShaKeyFor(jwtServiceSecret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parserBuilder()
+                .setSigningKeyResolver(keyResolver())
+                .build();
+
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheMaxEntries)
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String token, Claims claims, long currentTime) {
+                        return cacheNanos(claims);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, Claims claims, long currentTime, long currentDuration) {
+                        return cacheNanos(claims);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "jwt.verified.cache");
+    }
+
+    // The key locator that replaces the resolver only exists from jjwt 0.12;
+    // on 0.11 the adapter is the way to pick a key, and its header is raw
+    @SuppressWarnings({"deprecation", "rawtypes"})
+    private SigningKeyResolver keyResolver() {
+        return new SigningKeyResolverAdapter() {
+            @Override
+            public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                return isServiceToken(claims) ? serviceKey : userKey;
+            }
+        };
+    }
+
+    /**
+     * A verified token stays cached until it expires, but never longer than
+     * {@code jwt.cache.max-ttl-ms}.
+     */
+    private long cacheNanos(Claims claims) {
+        long maxTtl = TimeUnit.MILLISECONDS.toNanos(verifiedCacheMaxTtlMs);
+        Date expiration = claims.getExpiration();
+        if (expiration == null) return maxTtl;
+        long untilExpiry = TimeUnit.MILLISECONDS.toNanos(expiration.getTime() - System.currentTimeMillis());
+        return Math.max(0, Math.min(maxTtl, untilExpiry));
     }
 
     public String generateToken(Long userId, String roleClaim) {
@@ -43,7 +123,7 @@ public class JwtUtil {
                 .setExpiration(new Date(System.currentTimeMillis() + jwtUserExpirationMs))
                 .claim("token_type", "user")
                 .claim("role", roleClaim == null ? "PENDING" : roleClaim)
-                .signWith(userKey(), SignatureAlgorithm.HS256)
+                .signWith(userKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
@@ -60,34 +140,31 @@ public class JwtUtil {
                 .claim("token_type", "service")
                 .claim("service", serviceName)
                 .claim("role", "SERVICE")
-                .signWith(serviceKey(), SignatureAlgorithm.HS256)
+                .signWith(serviceKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
-    public Claims getClaims(String token, boolean isServiceToken) {
-        Key key = isServiceToken ? serviceKey() : userKey();
-        return Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+    /**
+     * Verifies a user or service token with a single parse and returns its claims.
+     *
+     * @throws JwtException if the signature, expiry or format is invalid
+     */
+    public Claims verify(String token) {
+        Claims cached = verifiedTokens.getIfPresent(token);
+        if (cached != null) return cached;
+
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        verifiedTokens.put(token, claims);
+        return claims;
     }
 
-    public boolean validateToken(String token, boolean isServiceToken) {
-        try {
-            Key key = isServiceToken ? serviceKey() : userKey();
-            Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token);
-            return true;
-        } catch (JwtException e) {
-            return false;
-        }
+    public boolean isServiceToken(Claims claims) {
+        return "service".equals(claims.get("token_type"));
     }
 
     public boolean isValidServiceToken(String token) {
         try {
-            Claims claims = getClaims(token, true);
-            String type = claims.get("token_type", String.class);
-            return "service".equals(type);
+            return isServiceToken(verify(token));
         } catch (JwtException | IllegalArgumentException e) {
             return false;
         }
@@ -0,0 +1,97 @@
+package kz.kbtu.sf.botforbusiness.security;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the signed service token used for calls to the platform bridges. The
+ * token is signed once and re-signed in the background ahead of its expiry,
+ * so outbound requests only read a field. Should renewal fall behind, the
+ * next caller signs a fresh token itself rather than send an expired one.
+ */
+@Slf4j
+@Component
+public class ServiceTokenProvider {
+
+    private final JwtUtil jwtUtil;
+    private final String serviceName;
+    private final long lifetimeMs;
+    private final long renewBeforeMs;
+
+    private volatile Token current;
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "service-token-renewer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ServiceTokenProvider(JwtUtil jwtUtil,
+                                @Value("${jwt.service.name:spring-service}") String serviceName,
+                                @Value("${jwt.expiration.service}") long lifetimeMs,
+                                @Value("${jwt.service.renew-before-ms:60000}") long renewBeforeMs) {
+        this.jwtUtil = jwtUtil;
+        this.serviceName = serviceName;
+        this.lifetimeMs = lifetimeMs;
+        // never renew later than at 80% of the lifetime, even for short-lived tokens
+        this.renewBeforeMs = Math.max(renewBeforeMs, lifetimeMs / 5);
+    }
+
+    @PostConstruct
+    public void start() {
+        renew();
+    }
+
+    public String getToken() {
+        Token token = current;
+        if (token == null || token.expiresAt() - System.currentTimeMillis() < renewBeforeMs / 2) {
+            token = renewNow();
+        }
+        return token.value();
+    }
+
+    private synchronized Token renewNow() {
+        Token token = current;
+        if (token != null && token.expiresAt() - System.currentTimeMillis() >= renewBeforeMs / 2) {
+            return token;
+        }
+        log.warn("Service token renewal fell behind, signing inline");
+        return sign();
+    }
+
+    private void renew() {
+        long nextInMs;
+        try {
+            Token token;
+            synchronized (this) {
+                token = sign();
+            }
+            nextInMs = Math.max(1000, token.expiresAt() - System.currentTimeMillis() - renewBeforeMs);
+        } catch (Exception e) {
+            log.error("❌ Service token renewal failed", e);
+            nextInMs = 5000;
+        }
+        renewer.schedule(this::renew, nextInMs, TimeUnit.MILLISECONDS);
+    }
+
+    private Token sign() {
+        long issuedAt = System.currentTimeMillis();
+        Token token = new Token(jwtUtil.generateServiceToken(serviceName), issuedAt + lifetimeMs);
+        current = token;
+        log.debug("Service token renewed, valid until {}", token.expiresAt());
+        return token;
+    }
+
+    @PreDestroy
+    public void stop() {
+        renewer.shutdownNow();
+    }
+
+    private record Token(String value, long expiresAt) {}
+}
@@ -0,0 +1,103 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Per-tenant cache of bot answers for questions customers ask again and again.
+ * Entries are keyed on the normalized question and a hash of the tenant's
+ * knowledge, so editing the knowledge never serves an answer built on the old
+ * text. The key includes a hash of the chat history, since the same words
+ * mean different things in different conversations. Only when
+ * {@code ignore-history-max-chars} is set can a short question that opens a
+ * conversation ("price?", "hours") be keyed without it.
+ */
+@Slf4j
+@Service
+public class AnswerCache {
+
+    private final boolean enabled;
+    private final int ignoreHistoryMaxChars;
+    private final Cache<Key, String> cache;
+
+    public AnswerCache(@Value("${chat.answer-cache.enabled:true}") boolean enabled,
+                       @Value("${chat.answer-cache.max-entries:10000}") long maxEntries,
+                       @Value("${chat.answer-cache.ttl-ms:21600000}") long ttlMs,
+                       @Value("${chat.answer-cache.ignore-history-max-chars:0}") int ignoreHistoryMaxChars,
+                       MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.ignoreHistoryMaxChars = ignoreHistoryMaxChars;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chat.answer.cache");
+    }
+
+    public Optional<String> get(Long tenantId, String knowledge, ChatHistory history, String question) {
+        Key key = key(tenantId, knowledge, history, question);
+        return key == null ? Optional.empty() : Optional.ofNullable(cache.getIfPresent(key));
+    }
+
+    public void put(Long tenantId, String knowledge, ChatHistory history, String question, String answer) {
+        if (answer == null || answer.isBlank()) return;
+        Key key = key(tenantId, knowledge, history, question);
+        if (key != null) cache.put(key, answer);
+    }
+
+    /**
+     * Drops every answer of the tenant, e.g. after its knowledge changed.
+     */
+    public void invalidateTenant(Long tenantId) {
+        cache.asMap().keySet().removeIf(key -> key.tenantId().equals(tenantId));
+        log.debug("Answer cache invalidated for tenant {}", tenantId);
+    }
+
+    private Key key(Long tenantId, String knowledge, ChatHistory history, String question) {
+        if (!enabled || tenantId == null) return null;
+        String normalized = normalize(question);
+        if (normalized.isEmpty()) return null;
+
+        // a follow-up like "yes" or "and delivery?" is only the same question within one conversation
+        boolean historyFree = normalized.length() <= ignoreHistoryMaxChars && history.isOpening();
+        String historyHash = historyFree ? "" : sha256(history.render());
+        return new Key(tenantId, sha256(knowledge), historyHash, normalized);
+    }
+
+    /**
+     * Lower-cases, drops punctuation and collapses whitespace, so "Price?" and
+     * "price" share an entry.
+     */
+    static String normalize(String question) {
+        if (question == null) return "";
+        return question.toLowerCase(Locale.ROOT)
+                .replaceAll("[^\\p{L}\\p{N}]+", " ")
+                .trim();
+    }
+
+    static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((text == null ? "" : text).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record Key(Long tenantId, String knowledgeHash, String historyHash, String question) {}
+}
@@ -1,6 +1,7 @@
 package kz.kbtu.sf.botforbusiness.service;
 
 import jakarta.persistence.EntityNotFoundException;
+import kz.kbtu.sf.botforbusiness.knowledge.KnowledgeIndexService;
 import kz.kbtu.sf.botforbusiness.model.BotKnowledge;
 import kz.kbtu.sf.botforbusiness.model.SourceType;
 import kz.kbtu.sf.botforbusiness.model.User;
@@ -8,6 +9,8 @@ import kz.kbtu.sf.botforbusiness.repository.BotKnowledgeRepository;
 import kz.kbtu.sf.botforbusiness.repository.UserRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Optional;
 
@@ -16,10 +19,16 @@ public class BotKnowledgeService {
 
     private final BotKnowledgeRepository botKnowledgeRepository;
     private final UserRepository userRepository;
+    private final AnswerCache answerCache;
+    private final KnowledgeIndexService knowledgeIndexService;
+    private final TenantConfigCache tenantConfigCache;
 
-    public BotKnowledgeService(BotKnowledgeRepository botKnowledgeRepository, UserRepository userRepository) {
+    public BotKnowledgeService(BotKnowledgeRepository botKnowledgeRepository, UserRepository userRepository, AnswerCache answerCache, KnowledgeIndexService knowledgeIndexService, TenantConfigCache tenantConfigCache) {
         this.botKnowledgeRepository = botKnowledgeRepository;
         this.userRepository = userRepository;
+        this.answerCache = answerCache;
+        this.knowledgeIndexService = knowledgeIndexService;
+        this.tenantConfigCache = tenantConfigCache;
     }
 
     @Transactional
@@ -33,13 +42,21 @@ public class BotKnowledgeService {
         BotKnowledge knowledge = new BotKnowledge(sourceType, content);
         knowledge.setOwner(user);
 
-        return botKnowledgeRepository.save(knowledge);
+        BotKnowledge saved = botKnowledgeRepository.save(knowledge);
+        tenantConfigCache.evict(userId);
+        afterCommit(() -> knowledgeIndexService.reindexAsync(userId, content));
+        return saved;
     }
 
     @Transactional
     public void deleteKnowledge(Long userId) {
         BotKnowledge knowledge = botKnowledgeRepository.findByOwnerId(userId).orElseThrow(() -> new EntityNotFoundException("Knowledge not found"));
         botKnowledgeRepository.delete(knowledge);
+        tenantConfigCache.evict(userId);
+        afterCommit(() -> {
+            answerCache.invalidateTenant(userId);
+            knowledgeIndexService.remove(userId);
+        });
     }
 
     @Transactional
@@ -51,7 +68,13 @@ public class BotKnowledgeService {
         }
 
         knowledge.setContent(newContent);
-        return botKnowledgeRepository.save(knowledge);
+        BotKnowledge saved = botKnowledgeRepository.save(knowledge);
+        tenantConfigCache.evict(userId);
+        afterCommit(() -> {
+            answerCache.invalidateTenant(userId);
+            knowledgeIndexService.reindexAsync(userId, newContent);
+        });
+        return saved;
     }
 
     @Transactional(readOnly = true)
@@ -60,4 +83,25 @@ public class BotKnowledgeService {
                 .findByOwnerId(userId)      // Optional<BotKnowledge>
                 .map(BotKnowledge::getContent); // Optional<String>
     }
+
+    // a rolled back change must not reach the caches, and a committed one must not be overtaken by a stale reload
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Narrows the knowledge down to the chunks relevant to {@code question}.
+     */
+    public String getRelevantKnowledge(Long userId, String content, String question) {
+        return knowledgeIndexService.relevantKnowledge(userId, content, question);
+    }
 }
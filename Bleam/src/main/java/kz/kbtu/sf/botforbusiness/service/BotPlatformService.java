@@ -14,11 +14,13 @@ public class BotPlatformService {
     private final TelegramRepository telegramRepository;
     private final WhatsAppRepository whatsAppRepository;
     private final UserRepository userRepository;
+    private final TenantConfigCache tenantConfigCache;
 
-    public BotPlatformService(TelegramRepository telegramRepository, WhatsAppRepository whatsAppRepository, UserRepository userRepository) {
+    public BotPlatformService(TelegramRepository telegramRepository, WhatsAppRepository whatsAppRepository, UserRepository userRepository, TenantConfigCache tenantConfigCache) {
         this.telegramRepository = telegramRepository;
         this.whatsAppRepository = whatsAppRepository;
         this.userRepository = userRepository;
+        this.tenantConfigCache = tenantConfigCache;
     }
 
     @Transactional
@@ -48,11 +50,11 @@ public class BotPlatformService {
         if (user.getAiModel() != aiModelType) {
             user.setAiModel(aiModelType);
             userRepository.save(user);
+            tenantConfigCache.evict(userId);
         }
     }
 
     public AiModelType getAiModelType(Long userId) {
-        User user = userRepository.findById(userId).orElseThrow(() -> new EntityNotFoundException("User not found"));
-        return user.getAiModel();
+        return tenantConfigCache.getAiModel(userId);
     }
 }
@@ -0,0 +1,150 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Byte-pair encoding over a tiktoken vocabulary ({@code <base64 token> <rank>}
+ * per line), counting tokens the way OpenAI models see them. Ranks are kept in
+ * an open-addressing table keyed by byte ranges, so counting a piece looks up
+ * slices of one UTF-8 buffer and allocates no per-lookup keys.
+ */
+final class BpeTokenizer {
+
+    private static final String CL100K_PATTERN =
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
+
+    private static final String O200K_PATTERN = String.join("|",
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?",
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?",
+            "\\p{N}{1,3}",
+            " ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*",
+            "\\s*[\\r\\n]+",
+            "\\s+(?!\\S)",
+            "\\s+");
+
+    private final Pattern pattern;
+    private final RankTable ranks;
+
+    private BpeTokenizer(Pattern pattern, RankTable ranks) {
+        this.pattern = pattern;
+        this.ranks = ranks;
+    }
+
+    /**
+     * @param encoding {@code o200k_base} or {@code cl100k_base}, which picks the pre-tokenization pattern
+     */
+    static BpeTokenizer load(InputStream vocabulary, String encoding) throws IOException {
+        List<byte[]> tokens = new ArrayList<>(200_000);
+        List<Integer> tokenRanks = new ArrayList<>(200_000);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(vocabulary, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) continue;
+                tokens.add(Base64.getDecoder().decode(line.substring(0, space)));
+                tokenRanks.add(Integer.parseInt(line.substring(space + 1).trim()));
+            }
+        }
+        if (tokens.isEmpty()) throw new IOException("Empty BPE vocabulary");
+
+        RankTable table = new RankTable(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) table.put(tokens.get(i), tokenRanks.get(i));
+
+        String regex = encoding.startsWith("cl100k") ? CL100K_PATTERN : O200K_PATTERN;
+        return new BpeTokenizer(Pattern.compile(regex), table);
+    }
+
+    int count(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        int total = 0;
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            byte[] piece = matcher.group().getBytes(StandardCharsets.UTF_8);
+            total += ranks.get(piece, 0, piece.length) >= 0 ? 1 : mergeCount(piece);
+        }
+        return total;
+    }
+
+    /**
+     * Merges the lowest-ranked adjacent pair until no pair is in the vocabulary.
+     * {@code starts} holds the start offset of every current part.
+     */
+    private int mergeCount(byte[] piece) {
+        int parts = piece.length;
+        int[] starts = new int[parts + 1];
+        for (int i = 0; i <= parts; i++) starts[i] = i;
+
+        while (parts > 1) {
+            int bestRank = Integer.MAX_VALUE;
+            int bestIndex = -1;
+            for (int i = 0; i + 1 < parts; i++) {
+                int rank = ranks.get(piece, starts[i], starts[i + 2] - starts[i]);
+                if (rank >= 0 && rank < bestRank) {
+                    bestRank = rank;
+                    bestIndex = i;
+                }
+            }
+            if (bestIndex < 0) break;
+
+            System.arraycopy(starts, bestIndex + 2, starts, bestIndex + 1, parts - bestIndex - 1);
+            parts--;
+        }
+        return parts;
+    }
+
+    /**
+     * Open-addressing map from byte strings to ranks that can be queried with a
+     * slice of a larger array.
+     */
+    private static final class RankTable {
+
+        private final byte[][] keys;
+        private final int[] values;
+        private final int mask;
+
+        RankTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+            this.keys = new byte[capacity][];
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        void put(byte[] key, int value) {
+            int slot = hash(key, 0, key.length) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        int get(byte[] buffer, int offset, int length) {
+            int slot = hash(buffer, offset, length) & mask;
+            byte[] key;
+            while ((key = keys[slot]) != null) {
+                if (key.length == length && Arrays.equals(key, 0, length, buffer, offset, offset + length)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int hash(byte[] buffer, int offset, int length) {
+            int h = 0x811c9dc5;
+            for (int i = offset; i < offset + length; i++) {
+                h ^= buffer[i];
+                h *= 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import kz.kbtu.sf.botforbusiness.model.SenderType;
+import kz.kbtu.sf.botforbusiness.service.SessionHistoryCache.Entry;
+
+import java.util.List;
+
+/**
+ * The history that goes into a prompt: the rolling summary of older messages,
+ * if any, and the recent messages oldest first.
+ */
+public record ChatHistory(String summary, List<Entry> messages) {
+
+    public boolean hasSummary() {
+        return summary != null && !summary.isBlank();
+    }
+
+    /**
+     * True while the bot has not answered in this conversation yet.
+     */
+    public boolean isOpening() {
+        return !hasSummary() && messages.stream().allMatch(m -> m.getSender() == SenderType.USER);
+    }
+
+    String summaryBlock() {
+        return hasSummary() ? "Краткое содержание ранней переписки: " + summary + "\n" : "";
+    }
+
+    /**
+     * The history as plain text, one line per message.
+     */
+    public String render() {
+        StringBuilder text = new StringBuilder(summaryBlock());
+        messages.forEach(m -> text.append(line(m)));
+        return text.toString();
+    }
+
+    static String line(Entry message) {
+        String sender = message.getSender() == SenderType.USER ? "Пользователь" : "Бот";
+        return sender + ": " + message.getText() + "\n";
+    }
+}
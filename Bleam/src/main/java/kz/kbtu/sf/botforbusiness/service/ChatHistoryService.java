@@ -0,0 +1,171 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import jakarta.annotation.PreDestroy;
+import kz.kbtu.sf.botforbusiness.model.AiModelType;
+import kz.kbtu.sf.botforbusiness.model.Session;
+import kz.kbtu.sf.botforbusiness.repository.SessionRepository;
+import kz.kbtu.sf.botforbusiness.service.SessionHistoryCache.Entry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds the chat history part of the prompt from a bounded window: the most
+ * recent messages verbatim plus a rolling summary of everything older, kept on
+ * the {@link Session}. The messages come from {@link SessionHistoryCache}, which
+ * holds at most {@code window + summary-batch} of them per session, however long
+ * the chat is. Once a full batch of stored messages has fallen out of the window
+ * it is folded into the summary in the background.
+ */
+@Slf4j
+@Service
+public class ChatHistoryService {
+
+    private static final String SUMMARY_SYSTEM_PROMPT =
+            "Ты ведешь краткий конспект переписки бота с клиентом. " +
+            "Обнови конспект с учетом новых сообщений. Сохрани важные факты: имя клиента, " +
+            "что он хочет, заказы, цены, договоренности и открытые вопросы. " +
+            "Пиши сжато, без вступлений.";
+
+    private final SessionHistoryCache sessionHistoryCache;
+    private final SessionRepository sessionRepository;
+    private final LlmRouter llmRouter;
+    private final TenantConfigCache tenantConfigCache;
+    private final TokenCounter tokenCounter;
+    private final int windowMessages;
+    private final int summaryBatch;
+    private final int tokenBudget;
+    private final int summaryMaxChars;
+
+    private final ExecutorService summarizer = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Long> summarizing = ConcurrentHashMap.newKeySet();
+
+    public ChatHistoryService(SessionHistoryCache sessionHistoryCache,
+                              SessionRepository sessionRepository,
+                              LlmRouter llmRouter,
+                              TenantConfigCache tenantConfigCache,
+                              TokenCounter tokenCounter,
+                              @Value("${chat.history.window-messages:20}") int windowMessages,
+                              @Value("${chat.history.summary-batch:20}") int summaryBatch,
+                              @Value("${chat.history.token-budget:0}") int tokenBudget,
+                              @Value("${chat.history.summary-max-chars:2000}") int summaryMaxChars) {
+        this.sessionHistoryCache = sessionHistoryCache;
+        this.sessionRepository = sessionRepository;
+        this.llmRouter = llmRouter;
+        this.tenantConfigCache = tenantConfigCache;
+        this.tokenCounter = tokenCounter;
+        this.windowMessages = Math.max(1, windowMessages);
+        this.summaryBatch = Math.max(1, summaryBatch);
+        this.tokenBudget = tokenBudget;
+        this.summaryMaxChars = summaryMaxChars;
+    }
+
+    public ChatHistory buildChatHistory(Session session) {
+        List<Entry> newestFirst = sessionHistoryCache.newestFirst(session.getId());
+
+        // another node may have moved the summary on since this node cached the session
+        long localUpTo = session.getSummarizedUpToId() == null ? 0 : session.getSummarizedUpToId();
+        if (sessionHistoryCache.summarizedUpTo(session.getId()) > localUpTo) {
+            session.applyHistorySummary(sessionRepository.findHistorySummary(session.getId()),
+                    sessionRepository.findSummarizedUpToId(session.getId()));
+        }
+
+        // entries without an id are still in the write-behind queue, so they are recent anyway
+        long summarizedUpTo = session.getSummarizedUpToId() == null ? 0 : session.getSummarizedUpToId();
+        List<Entry> unsummarized = newestFirst.stream()
+                .filter(m -> m.getId() == null || m.getId() > summarizedUpTo)
+                .toList();
+
+        if (unsummarized.size() >= windowMessages + summaryBatch) {
+            List<Entry> batch = new ArrayList<>(unsummarized.subList(windowMessages, unsummarized.size()));
+            Collections.reverse(batch);
+            if (batch.stream().allMatch(m -> m.getId() != null)) {
+                scheduleSummary(session, batch);
+            }
+        }
+
+        return render(session.getHistorySummary(), unsummarized);
+    }
+
+    /**
+     * Picks the summary and the messages, newest kept first when a token budget applies.
+     */
+    private ChatHistory render(String summary, List<Entry> newestFirst) {
+        int budget = tokenBudget > 0 ? tokenBudget : Integer.MAX_VALUE;
+        int used = 0;
+
+        ChatHistory withSummary = new ChatHistory(summary, List.of());
+        if (withSummary.hasSummary()) {
+            int tokens = tokenCounter.count(withSummary.summaryBlock());
+            if (tokens <= budget / 2) {
+                used += tokens;
+            } else {
+                summary = null;
+            }
+        }
+
+        List<Entry> kept = new ArrayList<>();
+        for (Entry message : newestFirst) {
+            int tokens = tokenCounter.count(ChatHistory.line(message));
+            if (used + tokens > budget) break;
+            used += tokens;
+            kept.add(message);
+        }
+        Collections.reverse(kept);
+
+        return new ChatHistory(summary, kept);
+    }
+
+    private void scheduleSummary(Session session, List<Entry> batch) {
+        Long sessionId = session.getId();
+        if (!summarizing.add(sessionId)) return;
+
+        String previous = session.getHistorySummary();
+        // the cached session's owner may predate a model switch, so ask the tenant config
+        Long tenantId = session.getOwner() == null ? null : session.getOwner().getId();
+        AiModelType model = tenantId == null ? AiModelType.GEMINI : tenantConfigCache.getAiModel(tenantId);
+        long upToId = batch.get(batch.size() - 1).getId();
+        StringBuilder transcript = new StringBuilder();
+        batch.forEach(m -> transcript.append(ChatHistory.line(m)));
+
+        summarizer.execute(() -> {
+            try {
+                String userPrompt = "Текущий конспект:\n" + (previous == null ? "(пусто)" : previous) +
+                        "\n\nНовые сообщения:\n" + transcript;
+                LlmClient client = llmRouter.forTenant(tenantId, model);
+                String summary = client.complete(SUMMARY_SYSTEM_PROMPT, userPrompt);
+                if (summary == null || summary.isBlank()) return;
+
+                summary = summary.trim();
+                if (summary.length() > summaryMaxChars) summary = summary.substring(0, summaryMaxChars);
+                if (sessionRepository.updateHistorySummary(sessionId, summary, upToId) > 0) {
+                    session.applyHistorySummary(summary, upToId);
+                    sessionHistoryCache.publishSummarized(sessionId, upToId);
+                } else {
+                    // another node got further; pick up its summary for the cached session
+                    session.applyHistorySummary(sessionRepository.findHistorySummary(sessionId),
+                            sessionRepository.findSummarizedUpToId(sessionId));
+                }
+                log.debug("Updated history summary of session {} up to message {}", sessionId, upToId);
+            } catch (Exception e) {
+                // the batch stays unsummarized and is picked up with the next reply
+                log.warn("Summarizing history of session {} failed: {}", sessionId, e.getMessage());
+            } finally {
+                summarizing.remove(sessionId);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        summarizer.shutdownNow();
+    }
+}
@@ -0,0 +1,41 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A prompt as role-separated turns. {@code system} is the static part
+ * (instructions, then knowledge) and always comes first, byte for byte the
+ * same for a tenant until its knowledge changes, so providers can reuse it as
+ * a cached prefix. {@code cacheKey} is set when the system part is worth
+ * registering as explicit provider-side cached content; such a prompt carries
+ * the whole knowledge, and {@link #inline()} gives the version to send when
+ * the cached content cannot be used.
+ */
+public record ChatPrompt(String system, List<Turn> turns, String cacheKey, Supplier<ChatPrompt> inlineVersion) {
+
+    public enum Role { USER, ASSISTANT }
+
+    public record Turn(Role role, String text) {}
+
+    public ChatPrompt(String system, List<Turn> turns, String cacheKey) {
+        this(system, turns, cacheKey, null);
+    }
+
+    /**
+     * A single-turn prompt, for callers that only have one user message.
+     */
+    public static ChatPrompt of(String system, String user) {
+        return new ChatPrompt(system, List.of(new Turn(Role.USER, user)), null);
+    }
+
+    /**
+     * The prompt for a provider without the cached content (GPT after a
+     * failover, or Gemini when registering it failed): the knowledge a
+     * question needs, fitted to the context budget. Prompts without a cache
+     * key are their own inline version.
+     */
+    public ChatPrompt inline() {
+        return inlineVersion == null ? this : inlineVersion.get();
+    }
+}
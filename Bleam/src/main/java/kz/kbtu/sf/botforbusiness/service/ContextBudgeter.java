@@ -0,0 +1,102 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Trims the knowledge and the chat history so a prompt fits
+ * {@code chat.context.max-prompt-tokens}, counted with {@link TokenCounter}.
+ * The history keeps its newest messages and may claim up to
+ * {@code history-share} of the room when the knowledge needs the rest; the
+ * knowledge keeps its leading lines, which after retrieval are the chunks in
+ * their original order.
+ */
+@Component
+public class ContextBudgeter {
+
+    // role markers and separators the providers add around each message
+    private static final int FRAMING_TOKENS = 16;
+
+    private final TokenCounter tokenCounter;
+    private final int maxPromptTokens;
+    private final double historyShare;
+
+    public ContextBudgeter(TokenCounter tokenCounter,
+                           @Value("${chat.context.max-prompt-tokens:11000}") int maxPromptTokens,
+                           @Value("${chat.context.history-share:0.4}") double historyShare) {
+        this.tokenCounter = tokenCounter;
+        this.maxPromptTokens = maxPromptTokens;
+        this.historyShare = Math.min(1, Math.max(0, historyShare));
+    }
+
+    /**
+     * @param fixed         every part of the prompt that is never trimmed (instructions, the question)
+     * @param trimKnowledge false when the knowledge must stay whole, e.g. because it is
+     *                      a cached prefix that would change with every cut
+     */
+    public Fitted fit(String fixed, String knowledge, ChatHistory history, boolean trimKnowledge) {
+        int room = maxPromptTokens - tokenCounter.count(fixed) - FRAMING_TOKENS;
+        int knowledgeTokens = tokenCounter.count(knowledge);
+        int historyTokens = tokenCounter.count(history.render());
+        if (knowledgeTokens + historyTokens <= room) {
+            return new Fitted(knowledge, history, knowledgeTokens + historyTokens, false);
+        }
+
+        room = Math.max(0, room);
+        int historyRoom = Math.max(room - knowledgeTokens, (int) (room * historyShare));
+        HistoryPart keptHistory = keepNewest(history, Math.min(historyTokens, historyRoom));
+        if (!trimKnowledge) {
+            return new Fitted(knowledge, keptHistory.history(), knowledgeTokens + keptHistory.tokens(), true);
+        }
+        Part keptKnowledge = keepOldest(knowledge, room - keptHistory.tokens());
+        return new Fitted(keptKnowledge.text(), keptHistory.history(), keptKnowledge.tokens() + keptHistory.tokens(), true);
+    }
+
+    private HistoryPart keepNewest(ChatHistory history, int budget) {
+        int used = 0;
+        String summary = null;
+        if (history.hasSummary()) {
+            int tokens = tokenCounter.count(history.summaryBlock());
+            if (tokens <= budget / 2) {
+                used += tokens;
+                summary = history.summary();
+            }
+        }
+
+        Deque<SessionHistoryCache.Entry> kept = new ArrayDeque<>();
+        List<SessionHistoryCache.Entry> messages = history.messages();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            int tokens = tokenCounter.count(ChatHistory.line(messages.get(i)));
+            if (used + tokens > budget) break;
+            used += tokens;
+            kept.addFirst(messages.get(i));
+        }
+        return new HistoryPart(new ChatHistory(summary, List.copyOf(kept)), used);
+    }
+
+    private Part keepOldest(String text, int budget) {
+        if (text == null || text.isEmpty()) return new Part("", 0);
+        StringBuilder kept = new StringBuilder();
+        int used = 0;
+        for (String line : text.split("(?<=\n)")) {
+            int tokens = tokenCounter.count(line);
+            if (used + tokens > budget) break;
+            used += tokens;
+            kept.append(line);
+        }
+        return new Part(kept.toString(), used);
+    }
+
+    private record Part(String text, int tokens) {}
+
+    private record HistoryPart(ChatHistory history, int tokens) {}
+
+    /**
+     * @param trimmed whether anything had to be dropped
+     */
+    public record Fitted(String knowledge, ChatHistory history, int tokens, boolean trimmed) {}
+}
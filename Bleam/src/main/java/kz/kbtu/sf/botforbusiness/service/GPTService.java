@@ -1,120 +1,145 @@
 package kz.kbtu.sf.botforbusiness.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
+@Slf4j
 @Service
-public class GPTService {
+public class GPTService implements LlmClient {
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private static final String PROVIDER = "openai";
+
+    private final LlmHttpTransport transport;
+    private final TokenCounter tokenCounter;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     private static final String MODEL = "gpt-5-nano";
     private static final int MODEL_MAX_TOKENS = 16000;
-    private static final int DEFAULT_MAX_COMPLETION_TOKENS = 1024;
     private static final int MIN_COMPLETION_TOKENS = 64;
     private static final int MAX_COMPLETION_TOKENS_CAP = 4096;
     private static final int SAFETY_MARGIN_TOKENS = 256;
+    private static final int MESSAGE_OVERHEAD_TOKENS = 12;
+    private static final int ESTIMATED_COMPLETION_TOKENS = 1024;
+    private static final int ESTIMATED_MAX_ATTEMPTS = 3;
 
     @Value("${openai.api.key}")
     private String openaiApiKey;
     private static final String OPENAI_CHAT_URL = "https://api.openai.com/v1/chat/completions";
 
-    public String getGPTResponse(String systemPrompt, String userPrompt) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(openaiApiKey);
-
-        String combinedInput = (systemPrompt == null ? "" : systemPrompt) + "\n\n" + (userPrompt == null ? "" : userPrompt);
-        int promptTokens = estimateTokens(combinedInput);
-
-        int maxCompletionTokens = Math.min(
-                DEFAULT_MAX_COMPLETION_TOKENS,
-                Math.max(MIN_COMPLETION_TOKENS, MODEL_MAX_TOKENS - promptTokens - SAFETY_MARGIN_TOKENS)
-        );
-        maxCompletionTokens = Math.min(maxCompletionTokens, MAX_COMPLETION_TOKENS_CAP);
-
-        int attempts = 0;
-        final int maxAttempts = 3;
-        String lastContent = "";
-
-        while (attempts < maxAttempts) {
-            Map<String, Object> systemMessage = Map.of(
-                    "role", "system",
-                    "content", systemPrompt
-            );
-            Map<String, Object> userMessage = Map.of(
-                    "role", "user",
-                    "content", userPrompt
-            );
-
-            Map<String, Object> body = new HashMap<>();
-            body.put("model", MODEL);
-            body.put("messages", List.of(systemMessage, userMessage));
-            body.put("max_completion_tokens", maxCompletionTokens);
+    public GPTService(LlmHttpTransport transport, TokenCounter tokenCounter) {
+        this.transport = transport;
+        this.tokenCounter = tokenCounter;
+    }
 
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-            ResponseEntity<Map> response;
-            try {
-                response = restTemplate.postForEntity(OPENAI_CHAT_URL, request, Map.class);
-            } catch (Exception ex) {
-                return "";
-            }
+    public String getGPTResponse(ChatPrompt prompt) {
+        // OpenAI has no registered cached content, so a Gemini-cached prompt goes out with retrieved knowledge
+        Map<String, Object> body = requestBody(prompt.inline());
+        int maxCompletionTokens = (int) body.get("max_completion_tokens");
+        // an estimated prompt size may leave the completion too little room, so allow a bigger retry
+        int maxAttempts = tokenCounter.isExact() ? 1 : ESTIMATED_MAX_ATTEMPTS;
 
-            if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
-                return "";
-            }
+        for (int attempt = 1; ; attempt++) {
+            // transport errors propagate, so LlmRouter can count them and fail over
+            Map<String, Object> respBody = transport.postJson(PROVIDER, OPENAI_CHAT_URL, Map.of("Authorization", "Bearer " + openaiApiKey), body);
 
-            Map<String, Object> respBody = response.getBody();
             List<Map<String, Object>> choices = (List<Map<String, Object>>) respBody.get("choices");
-            Map<String, Object> usage = respBody.get("usage") instanceof Map ? (Map<String,Object>) respBody.get("usage") : null;
-
-            if (choices != null && !choices.isEmpty()) {
-                Map<String, Object> first = choices.get(0);
-                String finishReason = first.get("finish_reason") != null ? first.get("finish_reason").toString() : null;
-
-                Map<String, Object> message = (Map<String, Object>) first.get("message");
-                String content = null;
-                if (message != null && message.get("content") != null) {
-                    content = message.get("content").toString().trim();
-                } else if (first.get("text") != null) {
-                    content = first.get("text").toString().trim();
-                }
-
-                Integer completionTokens = null;
-                try {
-                    if (usage != null && usage.get("completion_tokens") != null) {
-                        completionTokens = Integer.parseInt(usage.get("completion_tokens").toString());
-                    }
-                } catch (Exception ignored) {}
-
-                if (content != null && !content.isEmpty()) {
-                    return content;
-                } else {
-                    lastContent = "";
-                    if ("length".equalsIgnoreCase(finishReason)) {
-                        maxCompletionTokens = Math.min(MAX_COMPLETION_TOKENS_CAP, Math.max(maxCompletionTokens * 2, maxCompletionTokens + 256));
-                        attempts++;
-                        continue;
-                    } else {
-                        return "";
-                    }
-                }
-            } else {
+            if (choices == null || choices.isEmpty()) return "";
+
+            Map<String, Object> first = choices.get(0);
+            Map<String, Object> message = (Map<String, Object>) first.get("message");
+            if (message != null && message.get("content") != null && !message.get("content").toString().isBlank()) {
+                return message.get("content").toString().trim();
+            }
+            if (first.get("text") != null) {
+                return first.get("text").toString().trim();
+            }
+            if (!"length".equals(String.valueOf(first.get("finish_reason")))) return "";
+
+            if (attempt >= maxAttempts || maxCompletionTokens >= MAX_COMPLETION_TOKENS_CAP) {
+                log.warn("OpenAI completion hit max_completion_tokens={} without content", maxCompletionTokens);
                 return "";
             }
+            maxCompletionTokens = Math.min(MAX_COMPLETION_TOKENS_CAP, Math.max(maxCompletionTokens * 2, maxCompletionTokens + 256));
+            body.put("max_completion_tokens", maxCompletionTokens);
         }
-        return lastContent;
     }
 
-    private int estimateTokens(String text) {
-        if (text == null || text.isEmpty()) return 1;
-        int chars = text.length();
-        return Math.max(1, (int)Math.ceil(chars / 4.0));
+    /**
+     * The system message always comes first and is identical between replies
+     * until the knowledge changes, so OpenAI's automatic prefix caching can
+     * reuse it; only the turns after it are processed anew.
+     */
+    private Map<String, Object> requestBody(ChatPrompt prompt) {
+        List<Map<String, Object>> messages = new ArrayList<>();
+        if (prompt.system() != null && !prompt.system().isBlank()) {
+            messages.add(Map.of("role", "system", "content", prompt.system()));
+        }
+        for (ChatPrompt.Turn turn : prompt.turns()) {
+            messages.add(Map.of("role", turn.role() == ChatPrompt.Role.ASSISTANT ? "assistant" : "user", "content", turn.text()));
+        }
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", MODEL);
+        body.put("messages", messages);
+        body.put("max_completion_tokens", maxCompletionTokens(prompt));
+        return body;
+    }
+
+    /**
+     * With an exact count the completion gets all the room the context has
+     * left, up to the cap, and a second round trip is never needed. With an
+     * estimate it starts from the old default and grows on a retry.
+     */
+    private int maxCompletionTokens(ChatPrompt prompt) {
+        int promptTokens = tokenCounter.count(prompt.system()) + MESSAGE_OVERHEAD_TOKENS;
+        for (ChatPrompt.Turn turn : prompt.turns()) {
+            promptTokens += tokenCounter.count(turn.text()) + MESSAGE_OVERHEAD_TOKENS;
+        }
+        int available = MODEL_MAX_TOKENS - promptTokens - SAFETY_MARGIN_TOKENS;
+        int cap = tokenCounter.isExact() ? MAX_COMPLETION_TOKENS_CAP : ESTIMATED_COMPLETION_TOKENS;
+        return Math.min(cap, Math.max(MIN_COMPLETION_TOKENS, available));
+    }
+
+    @Override
+    public String complete(ChatPrompt prompt) {
+        return getGPTResponse(prompt);
+    }
+
+    /**
+     * Same request as {@link #getGPTResponse} with {@code stream: true}; the
+     * completion arrives as SSE chunks carrying {@code choices[0].delta.content}.
+     */
+    @Override
+    public String stream(ChatPrompt prompt, Consumer<String> onDelta) {
+        Map<String, Object> body = requestBody(prompt.inline());
+        body.put("stream", true);
+
+        StringBuilder full = new StringBuilder();
+        transport.postStream(PROVIDER, OPENAI_CHAT_URL, Map.of("Authorization", "Bearer " + openaiApiKey), body, data -> {
+            String delta = readTree(data).path("choices").path(0).path("delta").path("content").asText("");
+            if (delta.isEmpty()) return;
+            full.append(delta);
+            onDelta.accept(delta);
+        });
+        return full.toString().trim();
+    }
+
+    private JsonNode readTree(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed OpenAI stream chunk", e);
+        }
     }
 }
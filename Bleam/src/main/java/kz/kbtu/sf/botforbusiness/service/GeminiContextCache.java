@@ -0,0 +1,127 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registers the static prefix of big prompts as Gemini cached content, one
+ * handle per {@link ChatPrompt#cacheKey()} (a tenant and its knowledge
+ * version), so each reply only sends and pays for the turns after it. Handles
+ * are dropped locally a little before their server-side TTL runs out; a failed
+ * registration is remembered for {@code retry-after-ms} so an outage does not
+ * turn every reply into two calls, and one Gemini refused (e.g. content below
+ * its minimum size) for as long as a handle would have lived, since retrying
+ * the same content cannot succeed.
+ */
+@Slf4j
+@Component
+public class GeminiContextCache {
+
+    private static final String PROVIDER = "gemini";
+    private static final String CACHED_CONTENTS_URL = "https://generativelanguage.googleapis.com/v1beta/cachedContents";
+
+    private final LlmHttpTransport transport;
+    private final MeterRegistry meterRegistry;
+    private final String model;
+    private final long ttlMs;
+    private final long retryAfterMs;
+    private final Cache<String, Handle> handles;
+
+    @Value("${gemini.api.key}")
+    private String geminiApiKey;
+
+    public GeminiContextCache(LlmHttpTransport transport,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.prompt.gemini-cache.model:models/gemini-2.0-flash-001}") String model,
+                              @Value("${chat.prompt.gemini-cache.ttl-ms:3600000}") long ttlMs,
+                              @Value("${chat.prompt.gemini-cache.renew-before-ms:60000}") long renewBeforeMs,
+                              @Value("${chat.prompt.gemini-cache.retry-after-ms:60000}") long retryAfterMs,
+                              @Value("${chat.prompt.gemini-cache.max-entries:1000}") long maxEntries) {
+        this.transport = transport;
+        this.meterRegistry = meterRegistry;
+        this.model = model;
+        this.ttlMs = ttlMs;
+        this.retryAfterMs = retryAfterMs;
+        long keepNanos = Math.max(0, ttlMs - renewBeforeMs) * 1_000_000L;
+        long retryNanos = retryAfterMs * 1_000_000L;
+        this.handles = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new Expiry<String, Handle>() {
+                    @Override
+                    public long expireAfterCreate(String key, Handle handle, long currentTime) {
+                        return handle.name() == null && !handle.refused() ? retryNanos : keepNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Handle handle, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, handle, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Handle handle, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, handles, "chat.prompt.gemini.cache");
+    }
+
+    /**
+     * The model the handles are registered for; requests that use a handle
+     * must name the same model.
+     */
+    public String model() {
+        return model;
+    }
+
+    /**
+     * Returns the cached-content name for the prompt's system part, registering
+     * it on first use, or null if it could not be registered.
+     */
+    public String handleFor(ChatPrompt prompt) {
+        if (prompt.cacheKey() == null) return null;
+        return handles.get(prompt.cacheKey(), key -> register(key, prompt.system())).name();
+    }
+
+    /**
+     * Forgets a handle Gemini no longer accepts, e.g. after it expired early.
+     */
+    public void invalidate(String cacheKey) {
+        handles.invalidate(cacheKey);
+    }
+
+    private Handle register(String cacheKey, String system) {
+        Map<String, Object> body = Map.of(
+                "model", model,
+                "systemInstruction", Map.of("parts", List.of(Map.of("text", system))),
+                "ttl", (ttlMs / 1000) + "s"
+        );
+        try {
+            Map<String, Object> response = transport.postJson(PROVIDER, CACHED_CONTENTS_URL, Map.of("X-goog-api-key", geminiApiKey), body);
+            Object name = response.get("name");
+            if (name == null) throw new IllegalStateException("no name in cachedContents response");
+
+            meterRegistry.counter("chat.prompt.gemini.cache.registered", "outcome", "success").increment();
+            log.info("Registered Gemini cached content {} for {}", name, cacheKey);
+            return new Handle(name.toString(), false);
+        } catch (RuntimeException e) {
+            boolean refused = GeminiService.isRejected(e);
+            meterRegistry.counter("chat.prompt.gemini.cache.registered", "outcome", refused ? "refused" : "error").increment();
+            log.warn("Could not register Gemini cached content for {}, sending it inline for {} ms: {}",
+                    cacheKey, refused ? ttlMs : retryAfterMs, e.getMessage());
+            return new Handle(null, refused);
+        }
+    }
+
+    private record Handle(String name, boolean refused) {}
+}
@@ -1,50 +1,143 @@
 package kz.kbtu.sf.botforbusiness.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
+@Slf4j
 @Service
-public class GeminiService {
+public class GeminiService implements LlmClient {
 
     @Value("${gemini.api.key}")
     private String geminiApiKey;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final LlmHttpTransport transport;
+    private final GeminiContextCache contextCache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private static final String GEMINI_URL = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-flash:generateContent";
+    private static final String PROVIDER = "gemini";
+
+    private static final String GEMINI_BASE_URL = "https://generativelanguage.googleapis.com/v1beta/";
+    private static final String DEFAULT_MODEL = "models/gemini-2.0-flash";
+
+    public GeminiService(LlmHttpTransport transport, GeminiContextCache contextCache) {
+        this.transport = transport;
+        this.contextCache = contextCache;
+    }
 
     public String getGeminiResponse(String prompt) {
+        return complete(ChatPrompt.of(null, prompt));
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("X-goog-api-key", geminiApiKey);
+    @Override
+    public String complete(ChatPrompt prompt) {
+        return withContextCache(prompt, (sent, handle) -> {
+            Map<String, Object> response = transport.postJson(PROVIDER, url(handle, false), headers(), requestBody(sent, handle));
 
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("contents", List.of(
-                Map.of("parts", List.of(
-                        Map.of("text", prompt)
-                ))
-        ));
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-
-        ResponseEntity<Map> response = restTemplate.postForEntity(GEMINI_URL, request, Map.class);
-
-        List<Map<String, Object>> candidates = (List<Map<String, Object>>) response.getBody().get("candidates");
-        if (candidates != null && !candidates.isEmpty()) {
-            Map<String, Object> content = (Map<String, Object>) candidates.get(0).get("content");
-            List<Map<String, Object>> parts = (List<Map<String, Object>>) content.get("parts");
-            if (parts != null && !parts.isEmpty()) {
-                return (String) parts.get(0).get("text");
+            List<Map<String, Object>> candidates = (List<Map<String, Object>>) response.get("candidates");
+            if (candidates != null && !candidates.isEmpty()) {
+                Map<String, Object> content = (Map<String, Object>) candidates.get(0).get("content");
+                List<Map<String, Object>> parts = content == null ? null : (List<Map<String, Object>>) content.get("parts");
+                if (parts != null && !parts.isEmpty() && parts.get(0).get("text") != null) {
+                    return parts.get(0).get("text").toString().trim();
+                }
             }
+
+            // blank like the streaming path, so LlmRouter counts it as a failure and fails over
+            return "";
+        });
+    }
+
+    /**
+     * Calls {@code streamGenerateContent} with {@code alt=sse}; every event is a
+     * partial response whose candidate parts hold the next piece of text.
+     */
+    @Override
+    public String stream(ChatPrompt prompt, Consumer<String> onDelta) {
+        return withContextCache(prompt, (sent, handle) -> {
+            StringBuilder full = new StringBuilder();
+            transport.postStream(PROVIDER, url(handle, true), headers(), requestBody(sent, handle), data -> {
+                for (JsonNode part : readTree(data).path("candidates").path(0).path("content").path("parts")) {
+                    String delta = part.path("text").asText("");
+                    if (delta.isEmpty()) continue;
+                    full.append(delta);
+                    onDelta.accept(delta);
+                }
+            });
+            return full.toString().trim();
+        });
+    }
+
+    /**
+     * Runs the call against the prompt's cached content when it has one, and
+     * with the prompt's inline version otherwise. If Gemini rejects the handle
+     * before any text was produced, the handle is dropped and the call is
+     * repeated inline.
+     */
+    private String withContextCache(ChatPrompt prompt, BiFunction<ChatPrompt, String, String> call) {
+        String handle = contextCache.handleFor(prompt);
+        if (handle == null) return call.apply(prompt.inline(), null);
+        try {
+            return call.apply(prompt, handle);
+        } catch (IllegalStateException e) {
+            if (!isRejected(e)) throw e;
+            log.warn("Gemini rejected cached content {}, retrying inline: {}", handle, e.getMessage());
+            contextCache.invalidate(prompt.cacheKey());
+            return call.apply(prompt.inline(), null);
+        }
+    }
+
+    // a 4xx other than rate limiting arrives before any text, so a retry sends nothing twice
+    static boolean isRejected(RuntimeException e) {
+        String message = String.valueOf(e.getMessage());
+        return message.contains("returned HTTP 4") && !message.contains("returned HTTP 429");
+    }
+
+    private Map<String, Object> requestBody(ChatPrompt prompt, String handle) {
+        List<Map<String, Object>> contents = new ArrayList<>();
+        for (ChatPrompt.Turn turn : prompt.turns()) {
+            contents.add(Map.of(
+                    "role", turn.role() == ChatPrompt.Role.ASSISTANT ? "model" : "user",
+                    "parts", List.of(Map.of("text", turn.text()))
+            ));
+        }
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("contents", contents);
+        if (handle != null) {
+            // the system instruction lives in the cached content and may not be repeated
+            requestBody.put("cachedContent", handle);
+        } else if (prompt.system() != null && !prompt.system().isBlank()) {
+            requestBody.put("systemInstruction", Map.of("parts", List.of(Map.of("text", prompt.system()))));
         }
+        return requestBody;
+    }
+
+    private String url(String handle, boolean streaming) {
+        String model = handle == null ? DEFAULT_MODEL : contextCache.model();
+        return GEMINI_BASE_URL + model + (streaming ? ":streamGenerateContent?alt=sse" : ":generateContent");
+    }
 
-        return "Sorry, I couldn't generate a response.";
+    private Map<String, String> headers() {
+        return Map.of("X-goog-api-key", geminiApiKey);
+    }
+
+    private JsonNode readTree(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed Gemini stream chunk", e);
+        }
     }
 }
@@ -0,0 +1,34 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import java.util.Arrays;
+
+/**
+ * The last {@code capacity} latencies of a provider, for percentile estimates.
+ */
+final class LatencyWindow {
+
+    private final long[] samples;
+    private int next;
+    private int size;
+
+    LatencyWindow(int capacity) {
+        this.samples = new long[Math.max(1, capacity)];
+    }
+
+    synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        if (size < samples.length) size++;
+    }
+
+    /**
+     * Returns the percentile, or {@code fallback} while fewer than
+     * {@code minSamples} latencies have been seen.
+     */
+    synchronized long percentile(double p, int minSamples, long fallback) {
+        if (size < minSamples) return fallback;
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        return sorted[Math.min(size - 1, (int) Math.ceil(p * size) - 1)];
+    }
+}
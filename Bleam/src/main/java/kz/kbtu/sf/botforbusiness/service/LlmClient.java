@@ -0,0 +1,28 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import java.util.function.Consumer;
+
+/**
+ * Common entry point to the chat completion providers.
+ */
+public interface LlmClient {
+
+    /**
+     * Returns the whole completion once it is finished.
+     */
+    String complete(ChatPrompt prompt);
+
+    /**
+     * Streams the completion, handing every text delta to {@code onDelta} as it
+     * arrives, and returns the full text at the end.
+     */
+    String stream(ChatPrompt prompt, Consumer<String> onDelta);
+
+    default String complete(String systemPrompt, String userPrompt) {
+        return complete(ChatPrompt.of(systemPrompt, userPrompt));
+    }
+
+    default String stream(String systemPrompt, String userPrompt, Consumer<String> onDelta) {
+        return stream(ChatPrompt.of(systemPrompt, userPrompt), onDelta);
+    }
+}
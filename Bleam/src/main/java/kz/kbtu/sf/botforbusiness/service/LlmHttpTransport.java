@@ -0,0 +1,288 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Shared HTTP transport for the LLM providers, built on the JDK HttpClient.
+ * Each provider gets its own client, so its connections are pooled, kept alive
+ * and multiplexed over HTTP/2 independently of the others. Every call has a
+ * deadline, so a stalled provider cannot hold a reply thread forever: a stream
+ * that goes quiet for the idle timeout or runs past the stream timeout is
+ * closed by a watchdog, which also wakes the reader blocked on it.
+ */
+@Slf4j
+@Component
+public class LlmHttpTransport {
+
+    private static final TypeReference<Map<String, Object>> JSON_MAP = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Duration connectTimeout;
+    private final Duration requestTimeout;
+    private final Duration streamTimeout;
+    private final Duration streamIdleTimeout;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "llm-stream-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, HttpClient> clients = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public LlmHttpTransport(ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${chat.llm.connect-timeout-ms:5000}") long connectTimeoutMs,
+                            @Value("${chat.llm.request-timeout-ms:60000}") long requestTimeoutMs,
+                            @Value("${chat.llm.stream-timeout-ms:120000}") long streamTimeoutMs,
+                            @Value("${chat.llm.stream-idle-timeout-ms:30000}") long streamIdleTimeoutMs) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.connectTimeout = Duration.ofMillis(connectTimeoutMs);
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.streamTimeout = Duration.ofMillis(streamTimeoutMs);
+        this.streamIdleTimeout = Duration.ofMillis(streamIdleTimeoutMs);
+    }
+
+    /**
+     * POSTs {@code body} as JSON and returns the parsed JSON response. The whole
+     * call, body included, must finish within the request timeout.
+     */
+    public Map<String, Object> postJson(String provider, String url, Map<String, String> headers, Object body) {
+        HttpRequest request = request(url, headers, body, "application/json");
+        AtomicInteger active = inFlight(provider);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+
+        active.incrementAndGet();
+        CompletableFuture<HttpResponse<String>> call = client(provider).sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        try {
+            HttpResponse<String> response = call.get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            requireSuccess(provider, response.statusCode(), response.body());
+            Map<String, Object> parsed = objectMapper.readValue(response.body(), JSON_MAP);
+            outcome = "success";
+            return parsed;
+        } catch (TimeoutException e) {
+            call.cancel(true);
+            outcome = "timeout";
+            throw new IllegalStateException(provider + " did not answer within " + requestTimeout.toMillis() + " ms", e);
+        } catch (InterruptedException e) {
+            call.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(provider + " call interrupted", e);
+        } catch (ExecutionException e) {
+            // the client's own connect or request timeout arrives wrapped
+            if (e.getCause() instanceof HttpTimeoutException) outcome = "timeout";
+            throw new IllegalStateException(provider + " call failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed " + provider + " response", e);
+        } finally {
+            active.decrementAndGet();
+            sample.stop(timer(provider, outcome));
+        }
+    }
+
+    /**
+     * POSTs {@code body} as JSON and hands the data of every server-sent event
+     * to {@code onEvent}. The response must start within the request timeout,
+     * finish within the stream timeout and never go quiet for longer than the
+     * idle timeout.
+     */
+    public void postStream(String provider, String url, Map<String, String> headers, Object body, Consumer<String> onEvent) {
+        HttpRequest request = request(url, headers, body, "text/event-stream");
+        AtomicInteger active = inFlight(provider);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        StreamGuard guard = new StreamGuard();
+
+        active.incrementAndGet();
+        try {
+            HttpResponse<InputStream> response = client(provider).send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body()) {
+                guard.watch(in);
+                if (response.statusCode() / 100 != 2) {
+                    requireSuccess(provider, response.statusCode(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+                ServerSentEvents.read(in, data -> {
+                    guard.onEvent();
+                    onEvent.accept(data);
+                });
+            }
+            outcome = "success";
+        } catch (HttpTimeoutException e) {
+            outcome = "timeout";
+            throw new IllegalStateException(provider + " did not start streaming within " + requestTimeout.toMillis() + " ms", e);
+        } catch (InterruptedException | IOException e) {
+            if (guard.expiredReason() != null) {
+                outcome = "timeout";
+                throw new IllegalStateException(provider + " stream " + guard.expiredReason(), e);
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(provider + " stream interrupted", e);
+            }
+            throw new UncheckedIOException(provider + " stream failed", (IOException) e);
+        } finally {
+            guard.finish();
+            active.decrementAndGet();
+            sample.stop(timer(provider, outcome));
+        }
+    }
+
+    private HttpRequest request(String url, Map<String, String> headers, Object body, String accept) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not serialize LLM request", e);
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("Accept", accept)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(json));
+        headers.forEach(builder::header);
+        return builder.build();
+    }
+
+    private void requireSuccess(String provider, int status, String body) {
+        if (status / 100 == 2) return;
+        String snippet = body == null ? "" : body.substring(0, Math.min(300, body.length()));
+        throw new IllegalStateException(provider + " returned HTTP " + status + ": " + snippet);
+    }
+
+    private HttpClient client(String provider) {
+        return clients.computeIfAbsent(provider, p -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build());
+    }
+
+    private AtomicInteger inFlight(String provider) {
+        return inFlight.computeIfAbsent(provider, p -> {
+            AtomicInteger gauge = new AtomicInteger();
+            Gauge.builder("chat.llm.http.in.flight", gauge, AtomicInteger::get).tag("provider", p).register(meterRegistry);
+            return gauge;
+        });
+    }
+
+    private Timer timer(String provider, String outcome) {
+        return Timer.builder("chat.llm.http.requests")
+                .tag("provider", provider)
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        clients.values().forEach(HttpClient::shutdownNow);
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Ends a stream that stalls. Reading the body blocks without any timeout of
+     * its own, so the watchdog closes it and interrupts the reader; the reader
+     * learns why from {@link #expiredReason()}.
+     */
+    private final class StreamGuard {
+
+        private final Thread reader = Thread.currentThread();
+        private final long startedAt = System.nanoTime();
+        private final ScheduledFuture<?> check;
+        private volatile long lastEventAt = startedAt;
+        private volatile InputStream body;
+        private volatile String expiredReason;
+        private boolean finished;
+
+        private StreamGuard() {
+            long intervalMs = Math.max(10, Math.min(1000, streamIdleTimeout.toMillis() / 4));
+            this.check = watchdog.scheduleWithFixedDelay(this::check, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        void watch(InputStream in) {
+            body = in;
+            lastEventAt = System.nanoTime();
+        }
+
+        void onEvent() {
+            lastEventAt = System.nanoTime();
+        }
+
+        String expiredReason() {
+            return expiredReason;
+        }
+
+        private void check() {
+            long now = System.nanoTime();
+            String reason = null;
+            if (now - startedAt > streamTimeout.toNanos()) {
+                reason = "exceeded " + streamTimeout.toMillis() + " ms";
+            } else if (body != null && now - lastEventAt > streamIdleTimeout.toNanos()) {
+                reason = "was idle for over " + streamIdleTimeout.toMillis() + " ms";
+            }
+            if (reason == null) return;
+
+            synchronized (this) {
+                if (finished) return;
+                expiredReason = reason;
+                check.cancel(false);
+                InputStream in = body;
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        log.debug("Closing stalled LLM stream failed: {}", e.getMessage());
+                    }
+                }
+                reader.interrupt();
+            }
+        }
+
+        synchronized void finish() {
+            finished = true;
+            check.cancel(false);
+            if (expiredReason != null) {
+                // the interrupt was meant for the read only
+                Thread.interrupted();
+            }
+        }
+    }
+}
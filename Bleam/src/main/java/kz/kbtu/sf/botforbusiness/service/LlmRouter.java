@@ -0,0 +1,286 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import kz.kbtu.sf.botforbusiness.model.AiModelType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Routes completions to the tenant's chosen provider with failover to the
+ * other one. Each provider has a circuit breaker; while the preferred one is
+ * open the call goes straight to the other. A call that fails is retried on
+ * the other provider, and a call still without a result (or, when streaming,
+ * without a first token) after the preferred provider's recent p95 latency
+ * gets a hedged duplicate on the other provider. The first to deliver wins
+ * and the other is cancelled. Calls are admitted per tenant through
+ * {@link LlmScheduler} before any provider is tried.
+ * <p>
+ * Decisions are counted in {@code chat.llm.route}, winners in
+ * {@code chat.llm.route.wins}, and breaker states are exported as
+ * {@code chat.llm.breaker.state} (0 closed, 1 half-open, 2 open).
+ */
+@Slf4j
+@Service
+public class LlmRouter {
+
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final Map<AiModelType, Provider> providers = new EnumMap<>(AiModelType.class);
+    private final LlmScheduler scheduler;
+    private final MeterRegistry meterRegistry;
+    private final boolean hedgingEnabled;
+    private final long minHedgeDelayMs;
+    private final long defaultHedgeDelayMs;
+    private final long maxWaitMs;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public LlmRouter(GPTService gptService,
+                     GeminiService geminiService,
+                     LlmScheduler scheduler,
+                     MeterRegistry meterRegistry,
+                     @Value("${chat.llm.breaker.failure-threshold:5}") int failureThreshold,
+                     @Value("${chat.llm.breaker.open-ms:30000}") long openMs,
+                     @Value("${chat.llm.hedge.enabled:true}") boolean hedgingEnabled,
+                     @Value("${chat.llm.hedge.min-delay-ms:1500}") long minHedgeDelayMs,
+                     @Value("${chat.llm.hedge.default-delay-ms:10000}") long defaultHedgeDelayMs,
+                     @Value("${chat.llm.hedge.window:200}") int latencyWindow,
+                     @Value("${chat.llm.route.max-wait-ms:180000}") long maxWaitMs) {
+        this.scheduler = scheduler;
+        this.meterRegistry = meterRegistry;
+        this.hedgingEnabled = hedgingEnabled;
+        this.minHedgeDelayMs = minHedgeDelayMs;
+        this.defaultHedgeDelayMs = defaultHedgeDelayMs;
+        this.maxWaitMs = maxWaitMs;
+
+        providers.put(AiModelType.GPT, new Provider(AiModelType.GPT, gptService, failureThreshold, openMs, latencyWindow));
+        providers.put(AiModelType.GEMINI, new Provider(AiModelType.GEMINI, geminiService, failureThreshold, openMs, latencyWindow));
+        providers.values().forEach(p -> Gauge.builder("chat.llm.breaker.state", p.breaker, b -> b.state().ordinal())
+                .tag("provider", p.name())
+                .register(meterRegistry));
+    }
+
+    /**
+     * Returns a client for the tenant that prefers the given provider.
+     */
+    public LlmClient forTenant(Long tenantId, AiModelType preferred) {
+        AiModelType model = preferred == null ? AiModelType.GEMINI : preferred;
+        return scheduler.forTenant(tenantId, new LlmClient() {
+            @Override
+            public String complete(ChatPrompt prompt) {
+                return route(model, prompt, null);
+            }
+
+            @Override
+            public String stream(ChatPrompt prompt, Consumer<String> onDelta) {
+                return route(model, prompt, onDelta);
+            }
+        });
+    }
+
+    private String route(AiModelType preferred, ChatPrompt prompt, Consumer<String> onDelta) {
+        Provider primary = providers.get(preferred);
+        Provider backup = providers.get(preferred == AiModelType.GPT ? AiModelType.GEMINI : AiModelType.GPT);
+
+        if (!primary.breaker.allowRequest()) {
+            if (!backup.breaker.allowRequest()) {
+                decision(primary, "all-open");
+                throw new IllegalStateException("All LLM providers are open-circuit");
+            }
+            decision(primary, "failover-open");
+            Provider swap = primary;
+            primary = backup;
+            backup = swap;
+        } else {
+            decision(primary, "primary");
+        }
+
+        return new Race(primary, backup, prompt, onDelta).run();
+    }
+
+    private long hedgeDelayMs(Provider provider, boolean streaming) {
+        LatencyWindow window = streaming ? provider.firstTokenLatency : provider.completionLatency;
+        return Math.max(minHedgeDelayMs, window.percentile(0.95, MIN_LATENCY_SAMPLES, defaultHedgeDelayMs));
+    }
+
+    private void decision(Provider provider, String decision) {
+        meterRegistry.counter("chat.llm.route", "provider", provider.name(), "decision", decision).increment();
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * One routed call: the primary attempt and at most one backup attempt,
+     * started on failure or as a hedge.
+     */
+    private final class Race {
+
+        private final Provider primary;
+        private final Provider backup;
+        private final ChatPrompt prompt;
+        private final Consumer<String> onDelta;
+
+        private final AtomicReference<Provider> owner = new AtomicReference<>();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final List<Future<?>> attempts = new CopyOnWriteArrayList<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean backupStarted = new AtomicBoolean();
+        private volatile boolean hedged;
+
+        private Race(Provider primary, Provider backup, ChatPrompt prompt, Consumer<String> onDelta) {
+            this.primary = primary;
+            this.backup = backup;
+            this.prompt = prompt;
+            this.onDelta = onDelta;
+        }
+
+        String run() {
+            launch(primary);
+            try {
+                try {
+                    return result.get(hedgeDelayMs(primary, onDelta != null), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (hedgingEnabled && owner.get() == null && startBackup("hedge")) {
+                        hedged = true;
+                    }
+                    try {
+                        return result.get(maxWaitMs, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException stalled) {
+                        decision(owner.get() != null ? owner.get() : primary, "timeout");
+                        throw new IllegalStateException("No LLM result within " + maxWaitMs + " ms", stalled);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the LLM", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                attempts.forEach(f -> f.cancel(true));
+            }
+        }
+
+        private boolean startBackup(String reason) {
+            if (!backupStarted.compareAndSet(false, true)) return false;
+            if (!backup.breaker.allowRequest()) {
+                decision(backup, "backup-open");
+                return false;
+            }
+            decision(backup, reason);
+            launch(backup);
+            return true;
+        }
+
+        private void launch(Provider provider) {
+            pending.incrementAndGet();
+            attempts.add(executor.submit(() -> attempt(provider)));
+        }
+
+        private void attempt(Provider provider) {
+            long start = System.nanoTime();
+            try {
+                String text;
+                if (onDelta == null) {
+                    text = provider.client.complete(prompt);
+                } else {
+                    AtomicBoolean first = new AtomicBoolean(true);
+                    text = provider.client.stream(prompt, delta -> {
+                        if (!claim(provider)) throw new LostRace();
+                        if (first.compareAndSet(true, false)) {
+                            provider.firstTokenLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        }
+                        onDelta.accept(delta);
+                    });
+                }
+                if (text == null || text.isBlank()) {
+                    throw new IllegalStateException(provider.name() + " returned an empty completion");
+                }
+
+                provider.breaker.onSuccess();
+                provider.completionLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (claim(provider)) {
+                    meterRegistry.counter("chat.llm.route.wins", "provider", provider.name(), "hedged", String.valueOf(hedged)).increment();
+                    result.complete(text);
+                }
+                pending.decrementAndGet();
+            } catch (LostRace e) {
+                provider.breaker.onCancelled();
+                pending.decrementAndGet();
+            } catch (Exception e) {
+                Provider winner = owner.get();
+                if (winner != null && winner != provider) {
+                    // cancelled after losing, that says nothing about the provider
+                    provider.breaker.onCancelled();
+                    pending.decrementAndGet();
+                    return;
+                }
+
+                if (provider.breaker.onFailure()) {
+                    log.warn("LLM provider {} circuit opened", provider.name());
+                    meterRegistry.counter("chat.llm.breaker.opened", "provider", provider.name()).increment();
+                }
+                log.warn("LLM call to {} failed: {}", provider.name(), e.getMessage());
+
+                if (winner == provider) {
+                    // part of the reply was already streamed, it cannot move to another provider
+                    result.completeExceptionally(e);
+                    pending.decrementAndGet();
+                    return;
+                }
+                startBackup("failover-error");
+                if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }
+
+        private boolean claim(Provider provider) {
+            return owner.compareAndSet(null, provider) || owner.get() == provider;
+        }
+    }
+
+    private static final class LostRace extends RuntimeException {
+        LostRace() {
+            super("Another provider answered first", null, false, false);
+        }
+    }
+
+    private record Provider(AiModelType model,
+                            LlmClient client,
+                            CircuitBreaker breaker,
+                            LatencyWindow completionLatency,
+                            LatencyWindow firstTokenLatency) {
+
+        Provider(AiModelType model, LlmClient client, int failureThreshold, long openMs, int latencyWindow) {
+            this(model, client, new CircuitBreaker(failureThreshold, openMs),
+                    new LatencyWindow(latencyWindow), new LatencyWindow(latencyWindow));
+        }
+
+        String name() {
+            return model.name().toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Shares the node's LLM concurrency fairly between tenants. Every call first
+ * needs a token from its tenant's bucket ({@code tenant-rate-per-sec}, bursts
+ * up to {@code tenant-burst}); calls that have one are then admitted by
+ * weighted fair queuing on virtual finish times, so a tenant with a backlog
+ * gets its weighted share of the {@code max-concurrent} slots and no more,
+ * and a quiet tenant's call goes ahead of the backlog.
+ * <p>
+ * Callers block until admitted, which is fine on the virtual threads that run
+ * replies. A call that waits longer than {@code max-wait-ms}, or finds its
+ * tenant with {@code max-queued-per-tenant} calls already waiting, fails, and
+ * the reply goes through the usual retry with backoff.
+ */
+@Slf4j
+@Service
+public class LlmScheduler {
+
+    private static final long CLEANUP_INTERVAL_MS = 60_000;
+
+    private final int maxConcurrent;
+    private final double ratePerSec;
+    private final double burst;
+    private final int maxQueuedPerTenant;
+    private final long maxWaitMs;
+    private final Map<Long, Double> tenantWeights;
+
+    private final Object lock = new Object();
+    private final Map<Long, TenantQueue> tenants = new HashMap<>();
+    private final Set<TenantQueue> backlogged = new LinkedHashSet<>();
+    // changed under the lock; atomic so the gauges can read them without it
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger backloggedTenants = new AtomicInteger();
+    private double virtualTime;
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAt;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "llm-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Timer queueWait;
+    private final Counter rejected;
+    private final Counter timedOut;
+
+    public LlmScheduler(MeterRegistry meterRegistry,
+                        @Value("${chat.llm.scheduler.max-concurrent:32}") int maxConcurrent,
+                        @Value("${chat.llm.scheduler.tenant-rate-per-sec:2}") double ratePerSec,
+                        @Value("${chat.llm.scheduler.tenant-burst:10}") double burst,
+                        @Value("${chat.llm.scheduler.max-queued-per-tenant:100}") int maxQueuedPerTenant,
+                        @Value("${chat.llm.scheduler.max-wait-ms:60000}") long maxWaitMs,
+                        @Value("${chat.llm.scheduler.tenant-weights:}") String tenantWeights) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.ratePerSec = ratePerSec;
+        this.burst = Math.max(1, burst);
+        this.maxQueuedPerTenant = maxQueuedPerTenant;
+        this.maxWaitMs = maxWaitMs;
+        this.tenantWeights = parseWeights(tenantWeights);
+
+        this.queueWait = Timer.builder("chat.llm.scheduler.wait")
+                .description("Time an LLM call waited for admission")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.rejected = meterRegistry.counter("chat.llm.scheduler.rejected", "reason", "queue-full");
+        this.timedOut = meterRegistry.counter("chat.llm.scheduler.rejected", "reason", "timeout");
+        Gauge.builder("chat.llm.scheduler.in.flight", inFlight, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("chat.llm.scheduler.queued", queued, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("chat.llm.scheduler.backlogged.tenants", backloggedTenants, AtomicInteger::get).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        timer.scheduleWithFixedDelay(this::dropIdleTenants, CLEANUP_INTERVAL_MS, CLEANUP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a client whose calls are admitted through the tenant's queue.
+     */
+    public LlmClient forTenant(Long tenantId, LlmClient client) {
+        return new LlmClient() {
+            @Override
+            public String complete(ChatPrompt prompt) {
+                return run(tenantId, () -> client.complete(prompt));
+            }
+
+            @Override
+            public String stream(ChatPrompt prompt, Consumer<String> onDelta) {
+                return run(tenantId, () -> client.stream(prompt, onDelta));
+            }
+        };
+    }
+
+    public <T> T run(Long tenantId, Supplier<T> call) {
+        long start = System.nanoTime();
+        Ticket ticket = enqueue(tenantId);
+        try {
+            ticket.admitted.get(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (withdraw(ticket)) {
+                timedOut.increment();
+                throw new IllegalStateException("LLM call of tenant " + tenantId + " waited over " + maxWaitMs + " ms");
+            }
+            // admitted while timing out
+        } catch (InterruptedException e) {
+            if (!withdraw(ticket)) release();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an LLM slot", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        queueWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        try {
+            return call.get();
+        } finally {
+            release();
+        }
+    }
+
+    private Ticket enqueue(Long tenantId) {
+        synchronized (lock) {
+            TenantQueue tenant = tenants.computeIfAbsent(tenantId, id -> new TenantQueue(tenantWeights.getOrDefault(id, 1.0)));
+            if (tenant.waiting.size() >= maxQueuedPerTenant) {
+                rejected.increment();
+                throw new IllegalStateException("Tenant " + tenantId + " has too many LLM calls waiting");
+            }
+
+            double startTag = Math.max(virtualTime, tenant.lastFinish);
+            Ticket ticket = new Ticket(tenant, startTag, startTag + 1.0 / tenant.weight);
+            tenant.lastFinish = ticket.finishTag;
+            tenant.waiting.add(ticket);
+            backlogged.add(tenant);
+            backloggedTenants.set(backlogged.size());
+            queued.incrementAndGet();
+
+            dispatch();
+            return ticket;
+        }
+    }
+
+    /**
+     * Takes a ticket that gave up out of its queue. Returns false if it was
+     * admitted in the meantime, in which case the caller owns a slot.
+     */
+    private boolean withdraw(Ticket ticket) {
+        synchronized (lock) {
+            if (!ticket.tenant.waiting.remove(ticket)) return false;
+            queued.decrementAndGet();
+            if (ticket.tenant.waiting.isEmpty()) backlogged.remove(ticket.tenant);
+            backloggedTenants.set(backlogged.size());
+            return true;
+        }
+    }
+
+    private void release() {
+        synchronized (lock) {
+            inFlight.decrementAndGet();
+            dispatch();
+        }
+    }
+
+    /**
+     * Admits waiting calls while slots are free: among tenants with a token,
+     * the head call with the smallest finish tag goes first.
+     */
+    private void dispatch() {
+        long now = System.nanoTime();
+        while (inFlight.get() < maxConcurrent && !backlogged.isEmpty()) {
+            TenantQueue next = null;
+            long nextTokenInNanos = Long.MAX_VALUE;
+
+            for (TenantQueue tenant : backlogged) {
+                tenant.refill(now);
+                if (tenant.tokens < 1) {
+                    nextTokenInNanos = Math.min(nextTokenInNanos, tenant.nanosUntilToken());
+                    continue;
+                }
+                if (next == null || tenant.waiting.peek().finishTag < next.waiting.peek().finishTag) {
+                    next = tenant;
+                }
+            }
+
+            if (next == null) {
+                scheduleWakeup(now + nextTokenInNanos);
+                return;
+            }
+
+            Ticket ticket = next.waiting.poll();
+            next.tokens -= 1;
+            if (next.waiting.isEmpty()) backlogged.remove(next);
+            backloggedTenants.set(backlogged.size());
+            virtualTime = Math.max(virtualTime, ticket.startTag);
+            queued.decrementAndGet();
+            inFlight.incrementAndGet();
+            ticket.admitted.complete(null);
+        }
+    }
+
+    private void scheduleWakeup(long atNanos) {
+        if (wakeup != null && !wakeup.isDone() && wakeupAt <= atNanos) return;
+        if (wakeup != null) wakeup.cancel(false);
+        wakeupAt = atNanos;
+        wakeup = timer.schedule(() -> {
+            synchronized (lock) {
+                dispatch();
+            }
+        }, Math.max(0, atNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    private void dropIdleTenants() {
+        synchronized (lock) {
+            long now = System.nanoTime();
+            Iterator<TenantQueue> it = tenants.values().iterator();
+            while (it.hasNext()) {
+                TenantQueue tenant = it.next();
+                tenant.refill(now);
+                // a full bucket and a finish tag in the past is the same as a new tenant
+                if (tenant.waiting.isEmpty() && tenant.tokens >= burst && tenant.lastFinish <= virtualTime) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses weights in the form {@code userId:weight,userId:weight}.
+     */
+    private static Map<Long, Double> parseWeights(String raw) {
+        Map<Long, Double> weights = new HashMap<>();
+        if (raw == null || raw.isBlank()) return weights;
+
+        for (String entry : raw.split(",")) {
+            String[] parts = entry.trim().split(":");
+            try {
+                if (parts.length != 2) throw new NumberFormatException();
+                double weight = Double.parseDouble(parts[1].trim());
+                if (weight <= 0) throw new NumberFormatException();
+                weights.put(Long.parseLong(parts[0].trim()), weight);
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring malformed LLM scheduler weight '{}'", entry);
+            }
+        }
+        return weights;
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.shutdownNow();
+    }
+
+    private final class TenantQueue {
+
+        final double weight;
+        final ArrayDeque<Ticket> waiting = new ArrayDeque<>();
+        double tokens = burst;
+        long refilledAt = System.nanoTime();
+        double lastFinish;
+
+        TenantQueue(double weight) {
+            this.weight = weight;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * ratePerSec);
+            refilledAt = now;
+        }
+
+        long nanosUntilToken() {
+            if (ratePerSec <= 0) return TimeUnit.SECONDS.toNanos(1);
+            return (long) Math.ceil((1 - tokens) / ratePerSec * 1e9);
+        }
+    }
+
+    private record Ticket(TenantQueue tenant, double startTag, double finishTag, CompletableFuture<Void> admitted) {
+        Ticket(TenantQueue tenant, double startTag, double finishTag) {
+            this(tenant, startTag, finishTag, new CompletableFuture<>());
+        }
+    }
+}
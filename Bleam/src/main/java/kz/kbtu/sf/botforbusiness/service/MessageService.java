@@ -1,45 +1,118 @@
 package kz.kbtu.sf.botforbusiness.service;
 
-import jakarta.transaction.Transactional;
-import kz.kbtu.sf.botforbusiness.model.Message;
+import jakarta.persistence.EntityNotFoundException;
+import kz.kbtu.sf.botforbusiness.dto.MessageDTO;
+import kz.kbtu.sf.botforbusiness.dto.MessagePage;
 import kz.kbtu.sf.botforbusiness.model.SenderType;
 import kz.kbtu.sf.botforbusiness.model.Session;
 import kz.kbtu.sf.botforbusiness.repository.MessageRepository;
+import kz.kbtu.sf.botforbusiness.repository.SessionRepository;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class MessageService {
 
+    private static final int MAX_PAGE_SIZE = 200;
+
     private final MessageRepository messageRepository;
+    private final SessionRepository sessionRepository;
+    private final SessionHistoryCache sessionHistoryCache;
+    private final MessageWriteBehind messageWriteBehind;
 
-    public MessageService(MessageRepository messageRepository) {
+    public MessageService(MessageRepository messageRepository, SessionRepository sessionRepository, SessionHistoryCache sessionHistoryCache, MessageWriteBehind messageWriteBehind) {
         this.messageRepository = messageRepository;
+        this.sessionRepository = sessionRepository;
+        this.sessionHistoryCache = sessionHistoryCache;
+        this.messageWriteBehind = messageWriteBehind;
     }
 
-    @Transactional
+    /**
+     * Adds the message to the session's in-memory history right away and stores
+     * it in the database shortly after, in a batch.
+     */
     public void saveMessage(Session session, String text, SenderType sender) {
-        Message message = new Message(text, sender);
-        message.setSession(session);
+        SessionHistoryCache.Entry entry = sessionHistoryCache.append(session.getId(), sender, text);
+        messageWriteBehind.enqueue(session.getId(), entry);
+    }
 
-        messageRepository.save(message);
+    /**
+     * Saves several messages of one sender at once; the write-behind queue
+     * stores them with a single batched insert.
+     */
+    public void saveMessages(Session session, List<String> texts, SenderType sender) {
+        for (String text : texts) {
+            saveMessage(session, text, sender);
+        }
     }
 
-    public String buildChatHistory(Long sessionId) {
-        List<Message> messages = messageRepository.findAllBySessionIdOrderByTimestampAsc(sessionId);
+    /**
+     * Returns a page of the session's messages using keyset pagination on
+     * {@code (timestamp, id)}: the newest page without a cursor, otherwise the
+     * page right before or after the message with the given id.
+     */
+    @Transactional(readOnly = true)
+    public MessagePage getMessagePage(Long ownerId, Long sessionId, Long before, Long after, int limit) {
+        requireOwnedSession(ownerId, sessionId);
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Use either 'before' or 'after', not both");
+        }
+        int size = Math.max(1, Math.min(MAX_PAGE_SIZE, limit));
+        PageRequest page = PageRequest.of(0, size + 1);
 
-        StringBuilder history = new StringBuilder();
+        List<MessageDTO> rows;
+        if (after != null) {
+            rows = messageRepository.findAfter(sessionId, cursorTimestamp(sessionId, after), after, page);
+        } else if (before != null) {
+            rows = messageRepository.findBefore(sessionId, cursorTimestamp(sessionId, before), before, page);
+        } else {
+            rows = messageRepository.findNewest(sessionId, page);
+        }
 
-        for (Message message : messages) {
-            String sender = message.getSender() == SenderType.USER ? "Пользователь" : "Бот";
-            history.append(sender).append(": ").append(message.getText()).append("\n");
+        boolean hasMore = rows.size() > size;
+        List<MessageDTO> messages = new ArrayList<>(rows.subList(0, Math.min(size, rows.size())));
+        if (after == null) {
+            Collections.reverse(messages);
         }
 
-        return history.toString();
+        Long first = messages.isEmpty() ? before : messages.get(0).getId();
+        Long last = messages.isEmpty() ? after : messages.get(messages.size() - 1).getId();
+        return new MessagePage(messages, first, last, hasMore);
     }
 
-    public List<Message> getMessagesForSession(Long sessionId) {
-        return messageRepository.findAllBySessionIdOrderByTimestampAsc(sessionId);
+    /**
+     * Hands every message of the session to {@code sink}, oldest first, reading
+     * them through a database cursor so the whole conversation is never in memory.
+     */
+    @Transactional(readOnly = true)
+    public void streamMessages(Long ownerId, Long sessionId, Consumer<MessageDTO> sink) {
+        requireOwnedSession(ownerId, sessionId);
+        try (Stream<MessageDTO> messages = messageRepository.streamBySessionId(sessionId)) {
+            messages.forEach(sink);
+        }
+    }
+
+    private LocalDateTime cursorTimestamp(Long sessionId, Long messageId) {
+        LocalDateTime timestamp = messageRepository.findTimestamp(sessionId, messageId);
+        if (timestamp == null) throw new EntityNotFoundException("Message not found");
+        return timestamp;
+    }
+
+    /**
+     * Fails with {@link EntityNotFoundException} unless the session belongs to the owner.
+     */
+    @Transactional(readOnly = true)
+    public void requireOwnedSession(Long ownerId, Long sessionId) {
+        if (!sessionRepository.existsByIdAndOwnerId(sessionId, ownerId)) {
+            throw new EntityNotFoundException("Session not found");
+        }
     }
 }
@@ -0,0 +1,311 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import kz.kbtu.sf.botforbusiness.model.Message;
+import kz.kbtu.sf.botforbusiness.model.SenderType;
+import kz.kbtu.sf.botforbusiness.model.Session;
+import kz.kbtu.sf.botforbusiness.repository.MessageRepository;
+import kz.kbtu.sf.botforbusiness.repository.SessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes chat messages to PostgreSQL in batches, off the reply path.
+ * <p>
+ * Every message is first journaled to a Redis hash under its client id and
+ * removed from it once its batch has committed. Journal entries left behind
+ * by a node that died before flushing are replayed by any node once they are
+ * older than {@code chat.messages.replay-after-ms}; the unique client id on
+ * {@link Message} keeps a replayed message from being stored twice.
+ * <p>
+ * A batch that fails on its data (a deleted session, a value too long) is
+ * written row by row, and the rows that still fail are moved from the
+ * journal to {@code chat:msg:journal:dead}; other failures are retried with
+ * backoff. The queue is bounded: when it stays full for
+ * {@code chat.messages.enqueue-wait-ms}, the message is left to the journal
+ * replay, or written on the caller's thread if it could not be journaled.
+ */
+@Slf4j
+@Service
+@DependsOn("idSequenceAligner")
+public class MessageWriteBehind {
+
+    private static final String JOURNAL_KEY = "chat:msg:journal";
+    private static final String DEAD_KEY = "chat:msg:journal:dead";
+
+    private final MessageRepository messageRepository;
+    private final SessionRepository sessionRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long replayAfterMs;
+    private final long enqueueWaitMs;
+    private final MeterRegistry meterRegistry;
+
+    private final BlockingQueue<Pending> queue;
+    private final Set<String> unflushed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "message-journal-replayer");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean running = true;
+    private Thread flusher;
+
+    public MessageWriteBehind(MessageRepository messageRepository,
+                              SessionRepository sessionRepository,
+                              StringRedisTemplate redisTemplate,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.messages.batch-size:100}") int batchSize,
+                              @Value("${chat.messages.flush-interval-ms:500}") long flushIntervalMs,
+                              @Value("${chat.messages.replay-after-ms:60000}") long replayAfterMs,
+                              @Value("${chat.messages.queue-capacity:10000}") int queueCapacity,
+                              @Value("${chat.messages.enqueue-wait-ms:1000}") long enqueueWaitMs) {
+        this.messageRepository = messageRepository;
+        this.sessionRepository = sessionRepository;
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = flushIntervalMs;
+        this.replayAfterMs = replayAfterMs;
+        this.enqueueWaitMs = enqueueWaitMs;
+        this.meterRegistry = meterRegistry;
+        this.queue = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+
+        Gauge.builder("chat.messages.write.behind.queue", queue, BlockingQueue::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = new Thread(this::flushLoop, "message-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+        replayer.scheduleWithFixedDelay(this::replayJournal, replayAfterMs, replayAfterMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void enqueue(Long sessionId, SessionHistoryCache.Entry entry) {
+        boolean journaled = false;
+        try {
+            JournalRecord record = new JournalRecord(entry.getClientId(), sessionId, entry.getSender(), entry.getText(),
+                    entry.getTimestamp().toString(), System.currentTimeMillis());
+            redisTemplate.opsForHash().put(JOURNAL_KEY, entry.getClientId(), objectMapper.writeValueAsString(record));
+            journaled = true;
+        } catch (Exception e) {
+            // still written from memory, just not crash safe
+            log.warn("Could not journal message {}: {}", entry.getClientId(), e.getMessage());
+        }
+
+        Pending pending = new Pending(sessionId, entry);
+        unflushed.add(entry.getClientId());
+        try {
+            if (queue.offer(pending, enqueueWaitMs, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        unflushed.remove(entry.getClientId());
+
+        if (journaled) {
+            // the replay writes it once it is older than replay-after-ms
+            meterRegistry.counter("chat.messages.write.behind.overflow", "fallback", "journal").increment();
+            log.warn("Write-behind queue full, leaving message {} to the journal replay", entry.getClientId());
+            return;
+        }
+        meterRegistry.counter("chat.messages.write.behind.overflow", "fallback", "direct").increment();
+        try {
+            persistOrSplit(List.of(pending));
+        } catch (Exception e) {
+            log.error("❌ Could not store message {} of session {}: {}", entry.getClientId(), sessionId, e.getMessage());
+        }
+    }
+
+    private void flushLoop() {
+        while (running || !queue.isEmpty()) {
+            List<Pending> batch = new ArrayList<>(batchSize);
+            try {
+                Pending first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            persistWithRetry(batch);
+        }
+        log.info("Message write-behind stopped, {} messages left to the journal", queue.size());
+    }
+
+    private void persistWithRetry(List<Pending> batch) {
+        long backoffMs = 1000;
+        while (true) {
+            try {
+                persistOrSplit(batch);
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    log.error("❌ Could not flush {} messages on shutdown, they stay in the journal: {}", batch.size(), e.getMessage());
+                    return;
+                }
+                log.warn("Flushing {} messages failed, retrying in {} ms: {}", batch.size(), backoffMs, e.getMessage());
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoffMs = Math.min(30_000, backoffMs * 2);
+            }
+        }
+    }
+
+    /**
+     * Persists the batch; when it fails on its data, retries it row by row and
+     * dead-letters the rows that fail on their own. Other failures are thrown.
+     */
+    private void persistOrSplit(List<Pending> batch) {
+        try {
+            persist(batch);
+        } catch (RuntimeException e) {
+            if (!isPermanent(e)) throw e;
+            if (batch.size() == 1) {
+                deadLetter(batch.get(0), e);
+                return;
+            }
+            log.warn("Flushing {} messages failed on their data, writing them one by one: {}", batch.size(), e.getMessage());
+            for (Pending p : batch) persistOrSplit(List.of(p));
+        }
+    }
+
+    // failures of the rows themselves, which retrying the same rows cannot fix
+    private static boolean isPermanent(Throwable e) {
+        return e instanceof DataIntegrityViolationException
+                || e instanceof DataRetrievalFailureException
+                || e instanceof InvalidDataAccessApiUsageException;
+    }
+
+    private void deadLetter(Pending pending, Exception cause) {
+        SessionHistoryCache.Entry entry = pending.entry();
+        unflushed.remove(entry.getClientId());
+        meterRegistry.counter("chat.messages.dead.lettered").increment();
+        log.error("❌ Dropping message {} of session {}, it cannot be stored: {}",
+                entry.getClientId(), pending.sessionId(), cause.getMessage());
+        try {
+            JournalRecord record = new JournalRecord(entry.getClientId(), pending.sessionId(), entry.getSender(), entry.getText(),
+                    entry.getTimestamp().toString(), System.currentTimeMillis());
+            redisTemplate.opsForHash().put(DEAD_KEY, entry.getClientId(), objectMapper.writeValueAsString(record));
+            redisTemplate.opsForHash().delete(JOURNAL_KEY, entry.getClientId());
+        } catch (Exception e) {
+            log.warn("Could not move message {} out of the journal: {}", entry.getClientId(), e.getMessage());
+        }
+    }
+
+    private void persist(List<Pending> batch) {
+        List<Pending> toSave = batch;
+        List<Message> saved;
+        try {
+            saved = messageRepository.saveAll(toMessages(toSave));
+        } catch (DataIntegrityViolationException e) {
+            // part of the batch was already replayed from the journal by another node
+            Set<String> existing = new HashSet<>(messageRepository.findExistingClientIds(
+                    batch.stream().map(p -> p.entry().getClientId()).toList()));
+            toSave = batch.stream().filter(p -> !existing.contains(p.entry().getClientId())).toList();
+            saved = messageRepository.saveAll(toMessages(toSave));
+        }
+
+        Map<String, SessionHistoryCache.Entry> byClientId = new HashMap<>();
+        batch.forEach(p -> byClientId.put(p.entry().getClientId(), p.entry()));
+        for (Message message : saved) {
+            SessionHistoryCache.Entry entry = byClientId.get(message.getClientId());
+            if (entry != null) entry.markPersisted(message.getId());
+        }
+
+        Object[] clientIds = batch.stream().map(p -> p.entry().getClientId()).toArray();
+        batch.forEach(p -> unflushed.remove(p.entry().getClientId()));
+        try {
+            redisTemplate.opsForHash().delete(JOURNAL_KEY, clientIds);
+        } catch (Exception e) {
+            log.warn("Could not clear {} journal entries: {}", clientIds.length, e.getMessage());
+        }
+    }
+
+    private List<Message> toMessages(List<Pending> batch) {
+        Map<Long, Session> sessions = new HashMap<>();
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            SessionHistoryCache.Entry entry = p.entry();
+            Message message = new Message(entry.getText(), entry.getSender(), entry.getTimestamp(), entry.getClientId());
+            message.setSession(sessions.computeIfAbsent(p.sessionId(), sessionRepository::getReferenceById));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Persists journal entries that no live queue owns any more.
+     */
+    private void replayJournal() {
+        try {
+            Map<Object, Object> journal = redisTemplate.opsForHash().entries(JOURNAL_KEY);
+            long cutoff = System.currentTimeMillis() - replayAfterMs;
+
+            List<Pending> orphaned = new ArrayList<>();
+            for (Object raw : journal.values()) {
+                JournalRecord record = objectMapper.readValue(raw.toString(), JournalRecord.class);
+                if (unflushed.contains(record.clientId()) || record.enqueuedAt() > cutoff) continue;
+                orphaned.add(new Pending(record.sessionId(), SessionHistoryCache.Entry.replayed(
+                        record.clientId(), record.sender(), record.text(), LocalDateTime.parse(record.timestamp()))));
+            }
+            if (orphaned.isEmpty()) return;
+
+            for (int i = 0; i < orphaned.size(); i += batchSize) {
+                persistOrSplit(orphaned.subList(i, Math.min(orphaned.size(), i + batchSize)));
+            }
+            log.info("Replayed {} journaled messages", orphaned.size());
+        } catch (Exception e) {
+            log.warn("Message journal replay failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        replayer.shutdownNow();
+        if (flusher != null) {
+            try {
+                flusher.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private record Pending(Long sessionId, SessionHistoryCache.Entry entry) {}
+
+    private record JournalRecord(String clientId, Long sessionId, SenderType sender, String text, String timestamp, long enqueuedAt) {}
+}
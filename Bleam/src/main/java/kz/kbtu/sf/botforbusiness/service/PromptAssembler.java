@@ -0,0 +1,155 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import kz.kbtu.sf.botforbusiness.model.AiModelType;
+import kz.kbtu.sf.botforbusiness.model.SenderType;
+import kz.kbtu.sf.botforbusiness.service.SessionHistoryCache.Entry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Builds the reply prompt as role-separated turns in a fixed order: the
+ * instructions, then the knowledge, as the system part; then the history
+ * summary, the earlier messages as user and assistant turns, and the new
+ * messages as the last user turn. Everything that changes per reply comes
+ * after the system part, so the providers can cache it as a prefix.
+ * <p>
+ * Gemini tenants whose knowledge is at least
+ * {@code chat.prompt.gemini-cache.min-tokens}, with
+ * {@code chat.prompt.gemini-cache.margin} to spare since the count is not
+ * Gemini's own, get the whole knowledge in the system part, registered once
+ * per knowledge version as cached content by {@link GeminiContextCache};
+ * everyone else gets the retrieved chunks. A cached prompt carries the
+ * retrieved version as well, built only if a provider has to send it inline.
+ */
+@Slf4j
+@Component
+public class PromptAssembler {
+
+    static final String INSTRUCTIONS = "Если пользователь здоровается — поприветствуй его уместно. " +
+            "Если нет — продолжай разговор по теме. " +
+            "Не добавляй префиксы ('Bot:', 'Ответ:'). " +
+            "Пиши только по сути, избегая лишней воды.";
+
+    private static final String KNOWLEDGE_HEADER = "\n\n--- База знаний ---\n";
+
+    private final BotKnowledgeService botKnowledgeService;
+    private final ContextBudgeter contextBudgeter;
+    private final TokenCounter tokenCounter;
+    private final boolean geminiCacheEnabled;
+    private final int geminiCacheMinTokens;
+    private final double geminiCacheMargin;
+
+    public PromptAssembler(BotKnowledgeService botKnowledgeService,
+                           ContextBudgeter contextBudgeter,
+                           TokenCounter tokenCounter,
+                           @Value("${chat.prompt.gemini-cache.enabled:true}") boolean geminiCacheEnabled,
+                           @Value("${chat.prompt.gemini-cache.min-tokens:4096}") int geminiCacheMinTokens,
+                           @Value("${chat.prompt.gemini-cache.margin:0.25}") double geminiCacheMargin) {
+        this.botKnowledgeService = botKnowledgeService;
+        this.contextBudgeter = contextBudgeter;
+        this.tokenCounter = tokenCounter;
+        this.geminiCacheEnabled = geminiCacheEnabled;
+        this.geminiCacheMinTokens = geminiCacheMinTokens;
+        this.geminiCacheMargin = Math.max(0, geminiCacheMargin);
+    }
+
+    /**
+     * @param knowledge the tenant's full knowledge
+     * @param history   the session history, which already ends with the new messages
+     * @param question  the new messages joined, used when the history does not show them
+     */
+    public ChatPrompt assemble(Long tenantId, AiModelType model, String knowledge, ChatHistory history, String question) {
+        if (!cachesKnowledge(model, knowledge)) {
+            return inline(tenantId, knowledge, history, question);
+        }
+
+        // the full text is the cached prefix and stays whole; only the history is fitted
+        ContextBudgeter.Fitted fitted = contextBudgeter.fit(INSTRUCTIONS + KNOWLEDGE_HEADER + question, knowledge, history, false);
+        String system = INSTRUCTIONS + KNOWLEDGE_HEADER + knowledge;
+        String cacheKey = tenantId + ":" + AnswerCache.sha256(system);
+        return new ChatPrompt(system, turns(fitted.history(), question), cacheKey,
+                once(() -> inline(tenantId, knowledge, history, question)));
+    }
+
+    /**
+     * Only what the question needs, counted, not guessed: the prompt always
+     * fits, so no call is wasted on an overflow.
+     */
+    private ChatPrompt inline(Long tenantId, String knowledge, ChatHistory history, String question) {
+        String context = botKnowledgeService.getRelevantKnowledge(tenantId, knowledge, question);
+        ContextBudgeter.Fitted fitted = contextBudgeter.fit(INSTRUCTIONS + KNOWLEDGE_HEADER + question, context, history, true);
+        if (fitted.trimmed()) {
+            log.debug("Prompt for tenant {} trimmed to {} tokens of knowledge and history", tenantId, fitted.tokens());
+        }
+        return new ChatPrompt(INSTRUCTIONS + KNOWLEDGE_HEADER + fitted.knowledge(), turns(fitted.history(), question), null);
+    }
+
+    /**
+     * The estimate is not Gemini's count, so the knowledge has to clear the
+     * minimum by the margin; anything bigger is cached however large it is.
+     */
+    private boolean cachesKnowledge(AiModelType model, String knowledge) {
+        if (!geminiCacheEnabled || model == AiModelType.GPT) return false;
+        return tokenCounter.count(knowledge) >= geminiCacheMinTokens * (1 + geminiCacheMargin);
+    }
+
+    // hedged calls may both ask for it; building it twice is harmless
+    private static <T> Supplier<T> once(Supplier<T> supplier) {
+        AtomicReference<T> value = new AtomicReference<>();
+        return () -> {
+            T current = value.get();
+            if (current == null) {
+                current = supplier.get();
+                value.compareAndSet(null, current);
+            }
+            return current;
+        };
+    }
+
+    /**
+     * Consecutive messages of one sender become a single turn, so the turns
+     * alternate; the trailing user messages are the question.
+     */
+    private static List<ChatPrompt.Turn> turns(ChatHistory history, String question) {
+        List<ChatPrompt.Turn> turns = new ArrayList<>();
+        ChatPrompt.Role role = null;
+        StringBuilder text = new StringBuilder();
+        if (history.hasSummary()) {
+            // the summary opens the first user turn; Gemini rejects two user turns in a row
+            role = ChatPrompt.Role.USER;
+            text.append(history.summaryBlock().trim());
+        }
+
+        SenderType last = null;
+        for (Entry message : history.messages()) {
+            ChatPrompt.Role next = message.getSender() == SenderType.USER ? ChatPrompt.Role.USER : ChatPrompt.Role.ASSISTANT;
+            if (next != role && role != null) {
+                turns.add(new ChatPrompt.Turn(role, text.toString()));
+                text.setLength(0);
+            }
+            if (!text.isEmpty()) text.append('\n');
+            text.append(message.getText());
+            role = next;
+            last = message.getSender();
+        }
+
+        if (last != SenderType.USER) {
+            // trimmed away or not visible yet: ask the question itself
+            if (role == ChatPrompt.Role.ASSISTANT) {
+                turns.add(new ChatPrompt.Turn(role, text.toString()));
+                text.setLength(0);
+            }
+            if (!text.isEmpty()) text.append('\n');
+            text.append(question);
+            role = ChatPrompt.Role.USER;
+        }
+        turns.add(new ChatPrompt.Turn(role, text.toString()));
+        return turns;
+    }
+}
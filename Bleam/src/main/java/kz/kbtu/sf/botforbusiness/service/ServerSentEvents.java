@@ -0,0 +1,50 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Minimal reader for {@code text/event-stream} bodies as sent by the LLM APIs.
+ */
+final class ServerSentEvents {
+
+    private static final String DONE = "[DONE]";
+
+    private ServerSentEvents() {
+    }
+
+    /**
+     * Passes the data of every event to {@code onData} until the stream ends or
+     * sends {@code [DONE]}. Multi-line data fields are joined with a newline.
+     */
+    static void read(InputStream body, Consumer<String> onData) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        StringBuilder data = new StringBuilder();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (!dispatch(data, onData)) return;
+                continue;
+            }
+            if (line.startsWith("data:")) {
+                if (!data.isEmpty()) data.append('\n');
+                data.append(line.substring(5).stripLeading());
+            }
+        }
+        dispatch(data, onData);
+    }
+
+    private static boolean dispatch(StringBuilder data, Consumer<String> onData) {
+        if (data.isEmpty()) return true;
+        String event = data.toString();
+        data.setLength(0);
+        if (DONE.equals(event)) return false;
+        onData.accept(event);
+        return true;
+    }
+}
@@ -0,0 +1,361 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import kz.kbtu.sf.botforbusiness.model.Message;
+import kz.kbtu.sf.botforbusiness.model.SenderType;
+import kz.kbtu.sf.botforbusiness.repository.MessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps the most recent messages of active sessions in bounded ring buffers,
+ * so prompt history is served without touching the database. The tail of a
+ * session is shared through a Redis list, {@code chat:history:tail:{id}}, so
+ * a node answering a chat sees the messages another node handled (another
+ * lane, a failover, a window takeover) even before they are flushed.
+ * Messages reach the database later through {@link MessageWriteBehind}.
+ * <p>
+ * The local ring tracks the database ids of the shared entries. A list that
+ * expired is seeded again from the ring, which is loaded from the database on
+ * first use; idle buffers are evicted long after their writes were flushed,
+ * so a reload always sees them.
+ */
+@Slf4j
+@Service
+public class SessionHistoryCache {
+
+    private static final String TAIL_PREFIX = "chat:history:tail:";
+    private static final String SUMMARY_PREFIX = "chat:history:summarized:";
+
+    // ARGV[3] = '0' pushes only onto a live list and returns 0 when it has to be seeded;
+    // '1' seeds a missing list with all entries, or pushes just the last one if another node was first
+    private static final RedisScript<Long> APPEND_SCRIPT = RedisScript.of("""
+            local exists = redis.call('EXISTS', KEYS[1]) == 1
+            if not exists and ARGV[3] == '0' then return 0 end
+            local first = 4
+            if exists then first = #ARGV end
+            for i = first, #ARGV do redis.call('RPUSH', KEYS[1], ARGV[i]) end
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private static final RedisScript<Long> RAISE_SCRIPT = RedisScript.of("""
+            local current = tonumber(redis.call('GET', KEYS[1]) or '0')
+            if tonumber(ARGV[1]) > current then redis.call('SET', KEYS[1], ARGV[1]) end
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private final MessageRepository messageRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final int capacity;
+    private final long idleMs;
+    private final Cache<Long, Ring> rings;
+
+    public SessionHistoryCache(MessageRepository messageRepository,
+                               StringRedisTemplate redisTemplate,
+                               ObjectMapper objectMapper,
+                               @Value("${chat.history.window-messages:20}") int windowMessages,
+                               @Value("${chat.history.summary-batch:20}") int summaryBatch,
+                               @Value("${chat.history.cache.max-sessions:10000}") long maxSessions,
+                               @Value("${chat.history.cache.idle-ms:1800000}") long idleMs,
+                               MeterRegistry meterRegistry) {
+        this.messageRepository = messageRepository;
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.capacity = Math.max(1, windowMessages) + Math.max(1, summaryBatch);
+        this.idleMs = idleMs;
+        this.rings = Caffeine.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterAccess(Duration.ofMillis(idleMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, rings, "chat.history.cache");
+    }
+
+    /**
+     * Records a new message of the session and returns its entry, which gets its
+     * database id once the write-behind queue has stored it.
+     */
+    public Entry append(Long sessionId, SenderType sender, String text) {
+        Entry entry = new Entry(UUID.randomUUID().toString(), sender, text, LocalDateTime.now(), null);
+        Ring ring = rings.get(sessionId, this::load);
+        ring.add(entry);
+        share(sessionId, ring, entry);
+        return entry;
+    }
+
+    /**
+     * The buffered messages of the session, newest first, including the ones
+     * other nodes appended.
+     */
+    public List<Entry> newestFirst(Long sessionId) {
+        Ring ring = rings.get(sessionId, this::load);
+        List<String> shared;
+        try {
+            shared = redisTemplate.opsForList().range(TAIL_PREFIX + sessionId, 0, -1);
+        } catch (Exception e) {
+            log.warn("Could not read shared history of session {}, using the local one: {}", sessionId, e.getMessage());
+            return ring.newestFirst();
+        }
+        if (shared == null || shared.isEmpty()) return ring.newestFirst();
+
+        List<Entry> unresolved = ring.merge(shared.stream().map(this::fromJson).toList());
+        if (!unresolved.isEmpty()) resolveIds(unresolved);
+        return ring.newestFirst();
+    }
+
+    /**
+     * Announces that the session's summary now covers messages up to {@code upToId}.
+     */
+    public void publishSummarized(Long sessionId, long upToId) {
+        try {
+            redisTemplate.execute(RAISE_SCRIPT, List.of(SUMMARY_PREFIX + sessionId), String.valueOf(upToId), String.valueOf(idleMs));
+        } catch (Exception e) {
+            log.warn("Could not publish summary watermark of session {}: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * The highest message id any node has summarized the session up to, or 0 if unknown.
+     */
+    public long summarizedUpTo(Long sessionId) {
+        try {
+            String value = redisTemplate.opsForValue().get(SUMMARY_PREFIX + sessionId);
+            return value == null ? 0 : Long.parseLong(value);
+        } catch (Exception e) {
+            log.debug("Could not read summary watermark of session {}: {}", sessionId, e.getMessage());
+            return 0;
+        }
+    }
+
+    private void share(Long sessionId, Ring ring, Entry entry) {
+        String key = TAIL_PREFIX + sessionId;
+        try {
+            List<String> args = new ArrayList<>(List.of(String.valueOf(capacity), String.valueOf(idleMs), "0", toJson(entry)));
+            Long pushed = redisTemplate.execute(APPEND_SCRIPT, List.of(key), args.toArray());
+            if (pushed != null && pushed == 1) return;
+
+            // the list expired or never existed: seed it with everything this node knows
+            args = new ArrayList<>(List.of(String.valueOf(capacity), String.valueOf(idleMs), "1"));
+            List<Entry> newestFirst = ring.newestFirst();
+            for (int i = newestFirst.size() - 1; i >= 0; i--) {
+                args.add(toJson(newestFirst.get(i)));
+            }
+            redisTemplate.execute(APPEND_SCRIPT, List.of(key), args.toArray());
+        } catch (Exception e) {
+            // the local ring still has it; other nodes see it once it is flushed
+            log.warn("Could not share history entry of session {}: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private void resolveIds(List<Entry> unresolved) {
+        // only entries with a client id can lack a database id
+        Map<String, Entry> byClientId = new HashMap<>();
+        unresolved.forEach(e -> byClientId.put(e.getClientId(), e));
+        try {
+            for (Object[] row : messageRepository.findIdsByClientIds(byClientId.keySet())) {
+                Entry entry = byClientId.get((String) row[0]);
+                if (entry != null) entry.markPersisted((Long) row[1]);
+            }
+        } catch (Exception e) {
+            // still recent enough to be shown verbatim; resolved on a later read
+            log.debug("Could not resolve ids of shared history entries: {}", e.getMessage());
+        }
+    }
+
+    private Ring load(Long sessionId) {
+        List<Message> newestFirst = messageRepository.findBySessionIdOrderByIdDesc(sessionId, PageRequest.of(0, capacity));
+        Ring ring = new Ring(capacity);
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            Message m = newestFirst.get(i);
+            ring.add(new Entry(m.getClientId(), m.getSender(), m.getText(), m.getTimestamp(), m.getId()));
+        }
+        return ring;
+    }
+
+    private String toJson(Entry entry) throws JsonProcessingException {
+        return objectMapper.writeValueAsString(new SharedEntry(entry.getClientId(), entry.getSender(), entry.getText(),
+                entry.getTimestamp().toString(), entry.getId()));
+    }
+
+    private SharedEntry fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, SharedEntry.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Malformed shared history entry", e);
+        }
+    }
+
+    private record SharedEntry(String clientId, SenderType sender, String text, String timestamp, Long id) {}
+
+    public static final class Entry {
+
+        private final String clientId;
+        private final SenderType sender;
+        private final String text;
+        private final LocalDateTime timestamp;
+        private volatile Long id;
+
+        private Entry(String clientId, SenderType sender, String text, LocalDateTime timestamp, Long id) {
+            this.clientId = clientId;
+            this.sender = sender;
+            this.text = text;
+            this.timestamp = timestamp;
+            this.id = id;
+        }
+
+        static Entry replayed(String clientId, SenderType sender, String text, LocalDateTime timestamp) {
+            return new Entry(clientId, sender, text, timestamp, null);
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public SenderType getSender() {
+            return sender;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public LocalDateTime getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Database id, or null while the message is still waiting to be written.
+         */
+        public Long getId() {
+            return id;
+        }
+
+        void markPersisted(Long id) {
+            this.id = id;
+        }
+
+        private String key() {
+            return key(clientId, id);
+        }
+
+        /**
+         * Messages stored before client ids existed have none, so they are
+         * told apart by their database id instead.
+         */
+        private static String key(String clientId, Long id) {
+            if (clientId != null) return clientId;
+            if (id != null) return "db:" + id;
+            throw new IllegalStateException("History entry without a client or database id");
+        }
+    }
+
+    private static final class Ring {
+
+        private final Entry[] slots;
+        private final Map<String, Entry> byKey = new HashMap<>();
+        // entries other nodes wrote, whose ids come from the database
+        private final Set<String> remote = new HashSet<>();
+        private int next;
+        private int size;
+
+        private Ring(int capacity) {
+            this.slots = new Entry[capacity];
+        }
+
+        private synchronized void add(Entry entry) {
+            Entry evicted = slots[next];
+            if (evicted != null) {
+                byKey.remove(evicted.key());
+                remote.remove(evicted.key());
+            }
+            slots[next] = entry;
+            byKey.put(entry.key(), entry);
+            next = (next + 1) % slots.length;
+            size = Math.min(size + 1, slots.length);
+        }
+
+        private synchronized List<Entry> newestFirst() {
+            List<Entry> entries = new ArrayList<>(size);
+            for (int i = 1; i <= size; i++) {
+                entries.add(slots[Math.floorMod(next - i, slots.length)]);
+            }
+            return entries;
+        }
+
+        /**
+         * Replaces the ring's content with the shared tail, oldest first, keeping
+         * the local entries (and their ids) where they match. Returns the entries
+         * still without an id that this node did not write.
+         */
+        private synchronized List<Entry> merge(List<SharedEntry> shared) {
+            Map<String, Entry> known = new HashMap<>(byKey);
+            Set<String> knownRemote = new HashSet<>(remote);
+            List<Entry> local = newestFirst();
+
+            Arrays.fill(slots, null);
+            byKey.clear();
+            remote.clear();
+            next = 0;
+            size = 0;
+
+            Set<String> sharedKeys = new HashSet<>();
+            for (SharedEntry s : shared) {
+                String key = Entry.key(s.clientId(), s.id());
+                if (!sharedKeys.add(key)) continue;
+                Entry entry = known.get(key);
+                boolean fromRemote = entry == null || knownRemote.contains(key);
+                if (entry == null) {
+                    entry = new Entry(s.clientId(), s.sender(), s.text(), LocalDateTime.parse(s.timestamp()), s.id());
+                } else if (entry.getId() == null && s.id() != null) {
+                    entry.markPersisted(s.id());
+                }
+                add(entry);
+                if (fromRemote) remote.add(key);
+            }
+
+            // written here but never made it to the shared list
+            for (int i = local.size() - 1; i >= 0; i--) {
+                Entry entry = local.get(i);
+                if (entry.getId() == null && !sharedKeys.contains(entry.key())
+                        && !entry.getTimestamp().isBefore(lastTimestamp(shared))) {
+                    add(entry);
+                }
+            }
+
+            List<Entry> unresolved = new ArrayList<>();
+            for (String key : remote) {
+                Entry entry = byKey.get(key);
+                if (entry.getId() == null) unresolved.add(entry);
+            }
+            return unresolved;
+        }
+
+        private static LocalDateTime lastTimestamp(List<SharedEntry> shared) {
+            return LocalDateTime.parse(shared.get(shared.size() - 1).timestamp());
+        }
+    }
+}
@@ -1,37 +1,64 @@
 package kz.kbtu.sf.botforbusiness.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.persistence.EntityNotFoundException;
 import kz.kbtu.sf.botforbusiness.model.PlatformType;
 import kz.kbtu.sf.botforbusiness.model.Session;
-import kz.kbtu.sf.botforbusiness.model.User;
 import kz.kbtu.sf.botforbusiness.repository.SessionRepository;
 import kz.kbtu.sf.botforbusiness.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Service;
 
-import java.util.Optional;
+import java.time.Duration;
 
+/**
+ * Resolves the session of a chat, scoped to the owning tenant. Active chats
+ * are answered from memory; on a miss the session is looked up once and, if
+ * missing, created with an {@code ON CONFLICT DO NOTHING} insert, so
+ * concurrent replies can never create duplicates.
+ */
 @Service
+@DependsOn({"idSequenceAligner", "sessionUniqueKeyMigration"})
 public class SessionService {
 
     private final SessionRepository sessionRepository;
     private final UserRepository userRepository;
+    private final Cache<SessionKey, Session> sessions;
 
-    public SessionService(SessionRepository sessionRepository, UserRepository userRepository) {
+    public SessionService(SessionRepository sessionRepository,
+                          UserRepository userRepository,
+                          @Value("${chat.sessions.cache.max-entries:50000}") long maxEntries,
+                          @Value("${chat.sessions.cache.idle-ms:3600000}") long idleMs,
+                          MeterRegistry meterRegistry) {
         this.sessionRepository = sessionRepository;
         this.userRepository = userRepository;
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(Duration.ofMillis(idleMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "chat.sessions.cache");
     }
 
     public Session getOrCreateSession(Long userId, String chatUserId, PlatformType platformType) {
-        User user = userRepository.findById(userId).orElseThrow(() -> new EntityNotFoundException("User not found"));
-
-        Optional<Session> existingSession = sessionRepository.findByChatUserIdAndPlatformType(chatUserId, platformType);
-        if (existingSession.isPresent()) {
-            return existingSession.get();
-        }
-
-        Session session = new Session(chatUserId, platformType);
-        session.setOwner(user);
+        return sessions.get(new SessionKey(userId, platformType, chatUserId), this::resolve);
+    }
 
-        return sessionRepository.save(session);
+    private Session resolve(SessionKey key) {
+        return sessionRepository.findByOwnerIdAndPlatformTypeAndChatUserId(key.ownerId(), key.platformType(), key.chatUserId())
+                .orElseGet(() -> {
+                    if (!userRepository.existsById(key.ownerId())) {
+                        throw new EntityNotFoundException("User not found");
+                    }
+                    sessionRepository.insertIfAbsent(key.ownerId(), key.platformType().name(), key.chatUserId());
+                    return sessionRepository.findByOwnerIdAndPlatformTypeAndChatUserId(key.ownerId(), key.platformType(), key.chatUserId())
+                            .orElseThrow(() -> new IllegalStateException("Session vanished right after insert"));
+                });
     }
+
+    private record SessionKey(Long ownerId, PlatformType platformType, String chatUserId) {}
 }
@@ -0,0 +1,103 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Collapses identical LLM requests that are in flight at the same time, e.g.
+ * many customers asking about a promo right after a broadcast. The first
+ * conversation calls the model; the others wait for its result and deliver
+ * and persist it in their own chat. Requests are identical when provider,
+ * system prompt, normalized question and the whole chat history match, so
+ * only conversations in the same state share an answer, e.g. customers
+ * whose first message is the same question.
+ */
+@Slf4j
+@Service
+public class SingleFlightReplies {
+
+    private final boolean enabled;
+    private final long maxWaitMs;
+
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Counter leaders;
+    private final Counter collapsed;
+
+    public SingleFlightReplies(@Value("${chat.llm.single-flight.enabled:true}") boolean enabled,
+                               @Value("${chat.llm.single-flight.max-wait-ms:120000}") long maxWaitMs,
+                               MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.maxWaitMs = maxWaitMs;
+        this.leaders = meterRegistry.counter("chat.llm.single.flight", "role", "leader");
+        this.collapsed = meterRegistry.counter("chat.llm.single.flight", "role", "collapsed");
+        Gauge.builder("chat.llm.single.flight.in.flight", inFlight, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code call} unless an identical request is already in flight, in
+     * which case its result is awaited instead. A failed call fails its
+     * followers too, and they go through their own retry.
+     */
+    public Reply execute(Long tenantId, String provider, String systemPrompt, String history, String question,
+                         Supplier<String> call) {
+        if (!enabled) return new Reply(call.get(), false);
+
+        String key = key(tenantId, provider, systemPrompt, history, question);
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, mine);
+
+        if (existing != null) {
+            collapsed.increment();
+            return new Reply(await(existing), true);
+        }
+
+        leaders.increment();
+        try {
+            String text = call.get();
+            mine.complete(text);
+            return new Reply(text, false);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private String await(CompletableFuture<String> leader) {
+        try {
+            return leader.get(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shared reply", e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Shared reply not ready within " + maxWaitMs + " ms", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Shared reply failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private String key(Long tenantId, String provider, String systemPrompt, String history, String question) {
+        // the same words mean something else in another conversation, so the history always counts
+        String normalized = AnswerCache.normalize(question);
+        return tenantId + "|" + provider + "|" + AnswerCache.sha256(systemPrompt) + "|" + AnswerCache.sha256(history) + "|" + normalized;
+    }
+
+    /**
+     * @param shared true if the text came from another conversation's call and
+     *               still has to be delivered to this chat
+     */
+    public record Reply(String text, boolean shared) {}
+}
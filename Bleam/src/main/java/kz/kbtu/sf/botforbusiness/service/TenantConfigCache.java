@@ -0,0 +1,191 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import kz.kbtu.sf.botforbusiness.model.AiModelType;
+import kz.kbtu.sf.botforbusiness.model.BotKnowledge;
+import kz.kbtu.sf.botforbusiness.model.User;
+import kz.kbtu.sf.botforbusiness.repository.BotKnowledgeRepository;
+import kz.kbtu.sf.botforbusiness.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Two-level cache of the tenant data every reply needs: the AI model and the
+ * knowledge text. Lookups go to an in-process Caffeine cache, then to a Redis
+ * copy shared by all instances, and only then to PostgreSQL.
+ * <p>
+ * Writers call {@link #evict}, which drops the Redis copy and publishes the
+ * tenant id on {@value #INVALIDATION_CHANNEL}; every instance, including this
+ * one, drops its local entry when the message arrives. Inside a transaction
+ * this happens again after commit, so no instance can reload the old row in
+ * between. The local TTL bounds staleness should a message be lost.
+ */
+@Slf4j
+@Service
+public class TenantConfigCache {
+
+    static final String INVALIDATION_CHANNEL = "chat:tenant:config:invalidate";
+    private static final String KEY_PREFIX = "chat:tenant:config:";
+
+    private final UserRepository userRepository;
+    private final BotKnowledgeRepository botKnowledgeRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Duration redisTtl;
+
+    private final Cache<Long, TenantConfig> local;
+    private final RedisMessageListenerContainer listenerContainer = new RedisMessageListenerContainer();
+
+    private final Counter redisHits;
+    private final Counter redisMisses;
+    private final Counter invalidations;
+
+    public TenantConfigCache(UserRepository userRepository,
+                             BotKnowledgeRepository botKnowledgeRepository,
+                             StringRedisTemplate redisTemplate,
+                             RedisConnectionFactory connectionFactory,
+                             ObjectMapper objectMapper,
+                             PlatformTransactionManager transactionManager,
+                             MeterRegistry meterRegistry,
+                             @Value("${chat.tenant-config.local.max-entries:10000}") long maxEntries,
+                             @Value("${chat.tenant-config.local.ttl-ms:300000}") long localTtlMs,
+                             @Value("${chat.tenant-config.redis.ttl-ms:3600000}") long redisTtlMs) {
+        this.userRepository = userRepository;
+        this.botKnowledgeRepository = botKnowledgeRepository;
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.redisTtl = Duration.ofMillis(redisTtlMs);
+
+        this.local = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofMillis(localTtlMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, local, "chat.tenant.config.local");
+        this.redisHits = meterRegistry.counter("chat.tenant.config.redis", "result", "hit");
+        this.redisMisses = meterRegistry.counter("chat.tenant.config.redis", "result", "miss");
+        this.invalidations = meterRegistry.counter("chat.tenant.config.invalidations");
+
+        listenerContainer.setConnectionFactory(connectionFactory);
+    }
+
+    @PostConstruct
+    public void start() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                local.invalidate(Long.parseLong(body));
+                invalidations.increment();
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring malformed tenant config invalidation '{}'", body);
+            }
+        }, new ChannelTopic(INVALIDATION_CHANNEL));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+    }
+
+    public TenantConfig get(Long tenantId) {
+        return local.get(tenantId, this::loadShared);
+    }
+
+    public AiModelType getAiModel(Long tenantId) {
+        return get(tenantId).aiModel();
+    }
+
+    /**
+     * Drops the tenant everywhere after its model or knowledge changed. Inside
+     * a transaction that happens once it has committed; before that any node
+     * could reload the old row and keep it until the next change.
+     */
+    public void evict(Long tenantId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateEverywhere(tenantId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidateEverywhere(tenantId);
+            }
+        });
+    }
+
+    private void invalidateEverywhere(Long tenantId) {
+        local.invalidate(tenantId);
+        try {
+            redisTemplate.delete(KEY_PREFIX + tenantId);
+            redisTemplate.convertAndSend(INVALIDATION_CHANNEL, String.valueOf(tenantId));
+        } catch (Exception e) {
+            log.warn("Could not publish tenant config invalidation for {}: {}", tenantId, e.getMessage());
+        }
+    }
+
+    private TenantConfig loadShared(Long tenantId) {
+        String key = KEY_PREFIX + tenantId;
+        try {
+            String json = redisTemplate.opsForValue().get(key);
+            if (json != null) {
+                redisHits.increment();
+                return objectMapper.readValue(json, TenantConfig.class);
+            }
+        } catch (Exception e) {
+            log.debug("Tenant config {} unreadable from Redis: {}", tenantId, e.getMessage());
+        }
+        redisMisses.increment();
+
+        TenantConfig config = loadFromDatabase(tenantId);
+        try {
+            redisTemplate.opsForValue().set(key, objectMapper.writeValueAsString(config), redisTtl);
+        } catch (Exception e) {
+            log.debug("Could not share tenant config {} through Redis: {}", tenantId, e.getMessage());
+        }
+        return config;
+    }
+
+    private TenantConfig loadFromDatabase(Long tenantId) {
+        return readOnlyTransaction.execute(status -> {
+            User user = userRepository.findById(tenantId).orElseThrow(() -> new EntityNotFoundException("User not found"));
+            String knowledge = botKnowledgeRepository.findByOwnerId(tenantId)
+                    .map(BotKnowledge::getContent)
+                    .orElse(null);
+            return new TenantConfig(user.getAiModel(), knowledge);
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        try {
+            listenerContainer.destroy();
+        } catch (Exception e) {
+            log.debug("Stopping tenant config listener failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @param knowledge the tenant's knowledge text, {@code null} if none was set
+     */
+    public record TenantConfig(AiModelType aiModel, String knowledge) {}
+}
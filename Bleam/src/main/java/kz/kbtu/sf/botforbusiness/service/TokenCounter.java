@@ -0,0 +1,170 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Counts prompt tokens. With a tiktoken vocabulary the count is exact BPE;
+ * without one it falls back to a per-script estimate that errs high, since
+ * Cyrillic takes far more tokens per character than Latin text.
+ * <p>
+ * The vocabulary is read from {@code chat.tokenizer.vocabulary}, where the
+ * {@code bundle-tokenizer} build profile puts it. If it is not there, it is
+ * downloaded once from OpenAI's public encodings, checked against its
+ * published SHA-256 and kept in {@code chat.tokenizer.download.dir}. Running
+ * without one is reported as an error at startup, and
+ * {@code chat.tokenizer.require-exact=true} refuses to start instead.
+ */
+@Slf4j
+@Component
+public class TokenCounter {
+
+    private static final String ENCODINGS_URL = "https://openaipublic.blob.core.windows.net/encodings/";
+
+    // the hashes tiktoken checks its downloads against
+    private static final Map<String, String> SHA256 = Map.of(
+            "o200k_base", "446a9538cb6c348e3516120d7c08b09f57c36495e2acfffe59a5bf8b0cfb1a2d",
+            "cl100k_base", "223921b76ee99bde995b7ff738513eef100fb51d18c93597a113bcffe865b2a7"
+    );
+
+    private final BpeTokenizer tokenizer;
+
+    public TokenCounter(@Value("${chat.tokenizer.vocabulary:classpath:tokenizer/o200k_base.tiktoken}") Resource vocabulary,
+                        @Value("${chat.tokenizer.encoding:o200k_base}") String encoding,
+                        @Value("${chat.tokenizer.require-exact:false}") boolean requireExact,
+                        @Value("${chat.tokenizer.download.enabled:true}") boolean downloadEnabled,
+                        @Value("${chat.tokenizer.download.dir:${java.io.tmpdir}/bleam-tokenizer}") String downloadDir,
+                        @Value("${chat.tokenizer.download.timeout-ms:30000}") long downloadTimeoutMs) {
+        BpeTokenizer loaded = load(vocabulary, encoding);
+        if (loaded == null && downloadEnabled) {
+            loaded = download(encoding, Path.of(downloadDir), Duration.ofMillis(downloadTimeoutMs));
+        }
+        this.tokenizer = loaded;
+
+        if (tokenizer == null) {
+            if (requireExact) {
+                throw new IllegalStateException("chat.tokenizer.require-exact is set but no " + encoding +
+                        " vocabulary could be loaded from " + vocabulary + " or downloaded");
+            }
+            log.error("Token counts are ESTIMATED: no usable {} vocabulary at {} and none could be downloaded. " +
+                    "Prompt budgets keep a wide margin and OpenAI completions are retried when they run out of room. " +
+                    "Build with -Pbundle-tokenizer or point chat.tokenizer.vocabulary at the .tiktoken file.",
+                    encoding, vocabulary);
+        }
+    }
+
+    private static BpeTokenizer load(Resource vocabulary, String encoding) {
+        if (!vocabulary.exists()) return null;
+        try (InputStream in = vocabulary.getInputStream()) {
+            BpeTokenizer loaded = BpeTokenizer.load(in, encoding);
+            log.info("Loaded {} BPE vocabulary from {}", encoding, vocabulary);
+            return loaded;
+        } catch (Exception e) {
+            log.error("Could not load BPE vocabulary from {}: {}", vocabulary, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Uses the copy downloaded by an earlier start if it is intact, otherwise
+     * fetches the encoding and keeps it for the next start.
+     */
+    private static BpeTokenizer download(String encoding, Path dir, Duration timeout) {
+        String expected = SHA256.get(encoding);
+        if (expected == null) {
+            log.warn("No published hash for encoding {}, not downloading it", encoding);
+            return null;
+        }
+
+        Path cached = dir.resolve(encoding + ".tiktoken");
+        try {
+            byte[] bytes = Files.exists(cached) ? Files.readAllBytes(cached) : null;
+            if (bytes == null || !expected.equals(sha256(bytes))) {
+                bytes = fetch(ENCODINGS_URL + encoding + ".tiktoken", timeout);
+                String actual = sha256(bytes);
+                if (!expected.equals(actual)) {
+                    throw new IOException("hash mismatch, expected " + expected + " but got " + actual);
+                }
+                Files.createDirectories(dir);
+                Path partial = Files.createTempFile(dir, encoding, ".part");
+                Files.write(partial, bytes);
+                Files.move(partial, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            BpeTokenizer loaded = BpeTokenizer.load(new ByteArrayInputStream(bytes), encoding);
+            log.info("Loaded {} BPE vocabulary from {}", encoding, cached);
+            return loaded;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            log.error("Could not download the {} BPE vocabulary: {}", encoding, e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] fetch(String url, Duration timeout) throws IOException, InterruptedException {
+        try (HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build()) {
+            HttpResponse<byte[]> response = client.send(
+                    HttpRequest.newBuilder(URI.create(url)).timeout(timeout).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) throw new IOException(url + " returned HTTP " + response.statusCode());
+            return response.body();
+        }
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean isExact() {
+        return tokenizer != null;
+    }
+
+    public int count(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        return tokenizer != null ? tokenizer.count(text) : estimate(text);
+    }
+
+    /**
+     * About four Latin characters per token, two Cyrillic ones, and one token
+     * per other symbol.
+     */
+    static int estimate(String text) {
+        double tokens = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 128) {
+                tokens += Character.isLetterOrDigit(c) || c == ' ' ? 0.25 : 1;
+            } else if (Character.UnicodeBlock.of(c) == Character.UnicodeBlock.CYRILLIC) {
+                tokens += 0.5;
+            } else {
+                tokens += Character.isWhitespace(c) ? 0.25 : 1;
+            }
+        }
+        return Math.max(1, (int) Math.ceil(tokens));
+    }
+}
@@ -0,0 +1,83 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Bm25IndexTest {
+
+    private static Bm25Index index(String... documents) {
+        return new Bm25Index(List.of(documents).stream().map(KnowledgeTokenizer::termFrequencies).toList());
+    }
+
+    private static List<Integer> search(Bm25Index index, String query, int k) {
+        return index.search(KnowledgeTokenizer.tokens(query), k);
+    }
+
+    @Test
+    void ranksDocumentWithRareTermFirst() {
+        Bm25Index index = index(
+                "доставка по городу бесплатно",
+                "доставка за город платная",
+                "возврат товара в течение 14 дней");
+
+        // "возврат" occurs once in the corpus, "доставка" twice
+        assertThat(search(index, "доставка возврат", 3)).containsExactly(2, 0, 1);
+    }
+
+    @Test
+    void shorterDocumentWinsOnEqualTermFrequency() {
+        Bm25Index index = index(
+                "оплата картой курьеру при получении заказа в любом районе города",
+                "оплата картой");
+
+        assertThat(search(index, "оплата", 2)).containsExactly(1, 0);
+    }
+
+    @Test
+    void repeatedTermScoresHigherWithSaturation() {
+        Bm25Index index = index(
+                "скидка на обувь",
+                "скидка скидка скидка",
+                "новая коллекция");
+
+        assertThat(search(index, "скидка", 3)).containsExactly(1, 0);
+    }
+
+    @Test
+    void returnsAtMostKBestFirst() {
+        Bm25Index index = index(
+                "кофе",
+                "кофе кофе чай",
+                "кофе чай сок вода",
+                "чай");
+
+        // three documents match; the one-word document outranks the longer one that repeats the term
+        assertThat(search(index, "кофе", 2)).containsExactly(0, 1);
+    }
+
+    @Test
+    void neverReturnsDocumentsWithoutQueryTerms() {
+        Bm25Index index = index("режим работы с 9 до 18", "адрес магазина");
+
+        assertThat(search(index, "телефон", 5)).isEmpty();
+        assertThat(search(index, "адрес", 5)).containsExactly(1);
+    }
+
+    @Test
+    void handlesEmptyIndexAndNonPositiveK() {
+        assertThat(new Bm25Index(List.of()).search(List.of("кофе"), 3)).isEmpty();
+        assertThat(new Bm25Index(List.of(Map.of("кофе", 1))).search(List.of("кофе"), 0)).isEmpty();
+    }
+
+    @Test
+    void duplicateQueryTokensCountOnce() {
+        Bm25Index index = index("чай", "кофе кофе");
+
+        // counted three times, "чай" would put the first document on top
+        assertThat(search(index, "чай чай чай кофе", 2)).containsExactly(1, 0);
+    }
+}
@@ -0,0 +1,44 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HashingEmbedderTest {
+
+    private final HashingEmbedder embedder = new HashingEmbedder(256);
+
+    @Test
+    void vectorsAreUnitLength() {
+        float[] vector = embedder.embed("Доставка по Алматы бесплатно");
+
+        assertThat(vector).hasSize(256);
+        assertThat(HnswIndex.similarity(vector, vector)).isCloseTo(1.0, within(1e-5));
+    }
+
+    @Test
+    void sameTextGivesSameVectorRegardlessOfCase() {
+        assertThat(embedder.embed("Режим работы")).containsExactly(embedder.embed("режим РАБОТЫ"));
+    }
+
+    @Test
+    void overlappingTextIsCloserThanUnrelatedText() {
+        float[] query = embedder.embed("сколько стоит доставка");
+        double related = HnswIndex.similarity(query, embedder.embed("доставка стоит 1000 тенге"));
+        double unrelated = HnswIndex.similarity(query, embedder.embed("мы открыты с девяти утра"));
+
+        assertThat(related).isGreaterThan(unrelated);
+    }
+
+    @Test
+    void textWithoutWordsIsTheZeroVector() {
+        assertThat(embedder.embed("  !? ")).containsOnly(0f);
+        assertThat(embedder.embed(null)).containsOnly(0f);
+    }
+
+    @Test
+    void nameIdentifiesTheVectorSpace() {
+        assertThat(embedder.name()).isEqualTo("hashing-256");
+    }
+}
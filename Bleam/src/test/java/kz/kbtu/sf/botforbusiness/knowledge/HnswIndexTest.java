@@ -0,0 +1,94 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) vector[i] = (float) random.nextGaussian();
+        return HashingEmbedder.normalize(vector);
+    }
+
+    private static List<Integer> bruteForce(List<float[]> vectors, float[] query, int k) {
+        return IntStream.range(0, vectors.size()).boxed()
+                .sorted(Comparator.comparingDouble((Integer id) -> HnswIndex.similarity(query, vectors.get(id))).reversed())
+                .limit(k)
+                .toList();
+    }
+
+    @Test
+    void findsTheExactNearestNeighboursWithHighRecall() {
+        Random random = new Random(7);
+        List<float[]> vectors = IntStream.range(0, 1000).mapToObj(i -> randomUnitVector(random)).toList();
+        HnswIndex index = new HnswIndex(16, 100);
+        vectors.forEach(index::add);
+
+        int k = 10;
+        int hits = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnitVector(random);
+            List<Integer> found = index.search(query, k, 64);
+            assertThat(found).hasSize(k).doesNotHaveDuplicates();
+            hits += (int) found.stream().filter(bruteForce(vectors, query, k)::contains).count();
+        }
+
+        assertThat(hits / (double) (queries * k)).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    void returnsResultsBestFirst() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(8, 50);
+        List<float[]> vectors = IntStream.range(0, 200).mapToObj(i -> randomUnitVector(random)).toList();
+        vectors.forEach(index::add);
+
+        float[] query = randomUnitVector(random);
+        List<Double> scores = index.search(query, 20, 50).stream()
+                .map(id -> HnswIndex.similarity(query, vectors.get(id)))
+                .toList();
+
+        assertThat(scores).isSortedAccordingTo(Comparator.reverseOrder());
+    }
+
+    @Test
+    void anIndexedVectorIsItsOwnNearestNeighbour() {
+        Random random = new Random(3);
+        HnswIndex index = new HnswIndex(8, 50);
+        List<float[]> vectors = IntStream.range(0, 300).mapToObj(i -> randomUnitVector(random)).toList();
+        vectors.forEach(index::add);
+
+        for (int id = 0; id < vectors.size(); id += 17) {
+            assertThat(index.search(vectors.get(id), 1, 32)).containsExactly(id);
+        }
+    }
+
+    @Test
+    void idsAreInsertionIndexes() {
+        HnswIndex index = new HnswIndex(4, 10);
+
+        assertThat(index.add(new float[]{1, 0})).isZero();
+        assertThat(index.add(new float[]{0, 1})).isEqualTo(1);
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.search(new float[]{0.1f, 0.9f}, 5, 10)).containsExactly(1, 0);
+    }
+
+    @Test
+    void emptyIndexOrNonPositiveKFindsNothing() {
+        HnswIndex index = new HnswIndex(4, 10);
+        assertThat(index.search(new float[]{1, 0}, 3, 10)).isEmpty();
+
+        index.add(new float[]{1, 0});
+        assertThat(index.search(new float[]{1, 0}, 0, 10)).isEmpty();
+    }
+}
@@ -0,0 +1,53 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KnowledgeChunkerTest {
+
+    private final KnowledgeChunker chunker = new KnowledgeChunker(100);
+
+    @Test
+    void packsSmallParagraphsIntoOneChunk() {
+        assertThat(chunker.split("Режим работы: 9-18.\n\nАдрес: Абая 1."))
+                .containsExactly("Режим работы: 9-18.\nАдрес: Абая 1.");
+    }
+
+    @Test
+    void startsANewChunkWhenThePackWouldOverflow() {
+        String first = "a".repeat(60);
+        String second = "b".repeat(60);
+
+        assertThat(chunker.split(first + "\n\n" + second)).containsExactly(first, second);
+    }
+
+    @Test
+    void splitsLongParagraphsByLine() {
+        String line1 = "Кофе латте — 1200 тенге, капучино — 1100 тенге, американо — 900 тенге.";
+        String line2 = "Чай черный — 600 тенге, чай зеленый — 600 тенге, матча — 1500 тенге.";
+
+        assertThat(chunker.split(line1 + "\n" + line2)).containsExactly(line1, line2);
+    }
+
+    @Test
+    void cutsOverlongLinesAtASentenceEnd() {
+        String first = "Первое предложение про доставку по городу и за его пределами, включая пригород.";
+        String second = "Второе предложение про оплату картой.";
+
+        assertThat(chunker.split(first + " " + second)).containsExactly(first, second);
+    }
+
+    @Test
+    void noChunkExceedsTheLimit() {
+        String text = "слово ".repeat(500) + "\n\n" + "x".repeat(350);
+
+        assertThat(chunker.split(text)).isNotEmpty().allSatisfy(chunk -> assertThat(chunk.length()).isLessThanOrEqualTo(100));
+    }
+
+    @Test
+    void blankOrNullContentHasNoChunks() {
+        assertThat(chunker.split(null)).isEmpty();
+        assertThat(chunker.split(" \n\n \n")).isEmpty();
+    }
+}
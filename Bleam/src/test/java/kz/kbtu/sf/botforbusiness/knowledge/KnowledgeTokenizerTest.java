@@ -0,0 +1,51 @@
+package kz.kbtu.sf.botforbusiness.knowledge;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KnowledgeTokenizerTest {
+
+    @Test
+    void lowerCasesSplitsAndDropsStopWords() {
+        assertThat(KnowledgeTokenizer.tokens("Доставка и оплата, в 2 ДНЯ!"))
+                .containsExactly("доставк", "оплат", "2", "дня");
+    }
+
+    @Test
+    void russianInflectionsShareAStem() {
+        assertThat(KnowledgeTokenizer.stem("доставка"))
+                .isEqualTo(KnowledgeTokenizer.stem("доставки"))
+                .isEqualTo(KnowledgeTokenizer.stem("доставкой"));
+    }
+
+    @Test
+    void kazakhStacksOfEndingsAreStripped() {
+        assertThat(KnowledgeTokenizer.stem("кітаптардың")).isEqualTo("кітап");
+        assertThat(KnowledgeTokenizer.stem("кітапқа")).isEqualTo("кітап");
+    }
+
+    @Test
+    void keepsShortWordsAndNumbersWhole() {
+        assertThat(KnowledgeTokenizer.stem("чай")).isEqualTo("чай");
+        assertThat(KnowledgeTokenizer.stem("2024")).isEqualTo("2024");
+    }
+
+    @Test
+    void treatsYoAsYe() {
+        assertThat(KnowledgeTokenizer.tokens("ёлка")).isEqualTo(KnowledgeTokenizer.tokens("елка"));
+    }
+
+    @Test
+    void countsTermFrequencies() {
+        assertThat(KnowledgeTokenizer.termFrequencies("кофе и кофе, чай"))
+                .containsEntry(KnowledgeTokenizer.stem("кофе"), 2)
+                .containsEntry("чай", 1)
+                .hasSize(2);
+    }
+
+    @Test
+    void nullTextHasNoTokens() {
+        assertThat(KnowledgeTokenizer.tokens(null)).isEmpty();
+    }
+}
@@ -0,0 +1,141 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HashedTimingWheelTest {
+
+    private static final long TICK_MS = 10;
+
+    // 8 slots of 10 ms: anything due more than 80 ms out goes round more than once
+    private final HashedTimingWheel wheel = new HashedTimingWheel("test-wheel", TICK_MS, 8);
+
+    @AfterEach
+    void stopWheel() {
+        wheel.stop();
+    }
+
+    private static final class RecordingTimer extends HashedTimingWheel.Timer {
+
+        final CountDownLatch fired = new CountDownLatch(1);
+        final AtomicLong firedAt = new AtomicLong();
+        final AtomicInteger expiries = new AtomicInteger();
+
+        RecordingTimer(long deadline) {
+            super(deadline);
+        }
+
+        @Override
+        boolean expire(long now) {
+            expiries.incrementAndGet();
+            firedAt.set(now);
+            fired.countDown();
+            return true;
+        }
+    }
+
+    @Test
+    void firesOnceAfterTheDeadline() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 50;
+        RecordingTimer timer = new RecordingTimer(deadline);
+        wheel.schedule(timer);
+
+        assertThat(timer.fired.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(timer.firedAt.get()).isGreaterThanOrEqualTo(deadline);
+        Thread.sleep(200);
+        assertThat(timer.expiries.get()).isEqualTo(1);
+    }
+
+    @Test
+    void timerSeveralLapsOutWaitsForItsLap() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 300;
+        RecordingTimer timer = new RecordingTimer(deadline);
+        wheel.schedule(timer);
+
+        assertThat(timer.fired.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(timer.firedAt.get()).isGreaterThanOrEqualTo(deadline);
+    }
+
+    @Test
+    void movedDeadlineIsReBucketedInsteadOfFiringEarly() throws InterruptedException {
+        RecordingTimer timer = new RecordingTimer(System.currentTimeMillis() + 30);
+        wheel.schedule(timer);
+        long moved = System.currentTimeMillis() + 250;
+        timer.deadline = moved;
+
+        assertThat(timer.fired.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(timer.firedAt.get()).isGreaterThanOrEqualTo(moved);
+        assertThat(timer.expiries.get()).isEqualTo(1);
+    }
+
+    @Test
+    void pastDeadlineFiresOnTheNextTick() throws InterruptedException {
+        RecordingTimer timer = new RecordingTimer(System.currentTimeMillis() - 1000);
+        wheel.schedule(timer);
+
+        assertThat(timer.fired.await(500, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    void cancelledTimerNeverFires() throws InterruptedException {
+        RecordingTimer timer = new RecordingTimer(System.currentTimeMillis() + 30);
+        timer.cancelled = true;
+        wheel.schedule(timer);
+
+        assertThat(timer.fired.await(200, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    @Test
+    void timerThatDeclinesIsKeptAtItsMovedDeadline() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger expiries = new AtomicInteger();
+        AtomicLong secondDeadline = new AtomicLong();
+        AtomicLong finishedAt = new AtomicLong();
+
+        wheel.schedule(new HashedTimingWheel.Timer(System.currentTimeMillis() + 20) {
+            @Override
+            boolean expire(long now) {
+                if (expiries.incrementAndGet() == 1) {
+                    deadline = now + 100;
+                    secondDeadline.set(deadline);
+                    return false;
+                }
+                finishedAt.set(now);
+                done.countDown();
+                return true;
+            }
+        });
+
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(expiries.get()).isEqualTo(2);
+        assertThat(finishedAt.get()).isGreaterThanOrEqualTo(secondDeadline.get());
+    }
+
+    @Test
+    void failingTimerDoesNotStopTheWheel() throws InterruptedException {
+        wheel.schedule(new HashedTimingWheel.Timer(System.currentTimeMillis()) {
+            @Override
+            boolean expire(long now) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        RecordingTimer next = new RecordingTimer(System.currentTimeMillis() + 30);
+        wheel.schedule(next);
+
+        assertThat(next.fired.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void rejectsAWheelSizeThatIsNotAPowerOfTwo() {
+        assertThatThrownBy(() -> new HashedTimingWheel("bad-wheel", TICK_MS, 6))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
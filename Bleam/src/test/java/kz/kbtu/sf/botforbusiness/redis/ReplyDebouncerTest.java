@@ -0,0 +1,109 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplyDebouncerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // 100 ms quiet period, 400 ms cap, tenant 7 waits 300 ms
+    private final ReplyDebouncer debouncer = new ReplyDebouncer(100, 400, 50, "7:300, bad", 10, meterRegistry);
+
+    @AfterEach
+    void stopDebouncer() {
+        debouncer.stop();
+    }
+
+    @Test
+    void burstOfMessagesFlushesOnceAfterTheQuietPeriod() throws InterruptedException {
+        AtomicInteger flushes = new AtomicInteger();
+        CountDownLatch flushed = new CountDownLatch(1);
+        Runnable onFlush = () -> {
+            flushes.incrementAndGet();
+            flushed.countDown();
+        };
+
+        long start = System.currentTimeMillis();
+        debouncer.offer("chat-1", 1L, "привет", onFlush);
+        Thread.sleep(40);
+        debouncer.offer("chat-1", 1L, "хотел узнать", onFlush);
+        Thread.sleep(40);
+        long last = System.currentTimeMillis();
+        debouncer.offer("chat-1", 1L, "про доставку", onFlush);
+
+        assertThat(flushed.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(System.currentTimeMillis()).isGreaterThanOrEqualTo(last + 100);
+        assertThat(System.currentTimeMillis() - start).isLessThan(400);
+        Thread.sleep(200);
+        assertThat(flushes.get()).isEqualTo(1);
+    }
+
+    @Test
+    void questionFlushesImmediately() {
+        AtomicInteger flushes = new AtomicInteger();
+
+        debouncer.offer("chat-2", 1L, "сколько стоит доставка?", flushes::incrementAndGet);
+
+        assertThat(flushes.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("chat.debounce.flush", "reason", "complete").count()).isEqualTo(1);
+    }
+
+    @Test
+    void longMessageFlushesImmediately() {
+        AtomicInteger flushes = new AtomicInteger();
+
+        debouncer.offer("chat-3", 1L, "x".repeat(50), flushes::incrementAndGet);
+
+        assertThat(flushes.get()).isEqualTo(1);
+    }
+
+    @Test
+    void steadyTypingIsCappedByMaxWait() throws InterruptedException {
+        AtomicLong flushedAt = new AtomicLong();
+        CountDownLatch flushed = new CountDownLatch(1);
+        Runnable onFlush = () -> {
+            flushedAt.set(System.currentTimeMillis());
+            flushed.countDown();
+        };
+
+        long start = System.currentTimeMillis();
+        while (flushed.getCount() > 0 && System.currentTimeMillis() - start < 2000) {
+            debouncer.offer("chat-4", 1L, "еще", onFlush);
+            Thread.sleep(50);
+        }
+
+        assertThat(flushed.getCount()).isZero();
+        assertThat(flushedAt.get() - start).isBetween(400L, 1000L);
+        assertThat(meterRegistry.counter("chat.debounce.flush", "reason", "max-wait").count()).isEqualTo(1);
+    }
+
+    @Test
+    void tenantOverrideReplacesTheQuietPeriod() throws InterruptedException {
+        CountDownLatch flushed = new CountDownLatch(1);
+
+        long start = System.currentTimeMillis();
+        debouncer.offer("chat-5", 7L, "привет", flushed::countDown);
+
+        assertThat(flushed.await(150, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(flushed.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(300);
+    }
+
+    @Test
+    void newWindowOpensAfterAFlush() throws InterruptedException {
+        CountDownLatch flushed = new CountDownLatch(2);
+
+        debouncer.offer("chat-6", 1L, "первый?", flushed::countDown);
+        debouncer.offer("chat-6", 1L, "второй", flushed::countDown);
+
+        assertThat(flushed.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+}
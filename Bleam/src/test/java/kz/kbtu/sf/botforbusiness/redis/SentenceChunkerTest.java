@@ -0,0 +1,80 @@
+package kz.kbtu.sf.botforbusiness.redis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SentenceChunkerTest {
+
+    private static List<String> stream(SentenceChunker chunker, String... deltas) {
+        List<String> chunks = new ArrayList<>();
+        for (String delta : deltas) {
+            String chunk = chunker.append(delta);
+            if (chunk != null) chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    @Test
+    void cutsAtTheLastSentenceEndOnceLongEnough() {
+        SentenceChunker chunker = new SentenceChunker(10);
+
+        assertThat(stream(chunker, "Здравствуйте", "! Доставка ", "бесплатная. Оплата ", "картой"))
+                .containsExactly("Здравствуйте!", "Доставка бесплатная.");
+        assertThat(chunker.drain()).isEqualTo("Оплата картой");
+    }
+
+    @Test
+    void waitsForMinCharsBeforeCutting() {
+        SentenceChunker chunker = new SentenceChunker(30);
+
+        assertThat(chunker.append("Да. ")).isNull();
+        assertThat(chunker.append("Конечно. ")).isNull();
+        assertThat(chunker.append("Мы работаем до шести вечера. ")).isEqualTo("Да. Конечно. Мы работаем до шести вечера.");
+    }
+
+    @Test
+    void doesNotSplitInsideNumbersOrAbbreviations() {
+        SentenceChunker chunker = new SentenceChunker(5);
+
+        assertThat(chunker.append("Цена 3.5 тысячи, т.е.")).isNull();
+        assertThat(chunker.append(" недорого")).isEqualTo("Цена 3.5 тысячи, т.е.");
+    }
+
+    @Test
+    void punctuationAtTheEndOfADeltaWaitsForTheNextOne() {
+        SentenceChunker chunker = new SentenceChunker(5);
+
+        // the final '.' may be "3." of "3.5", so it is not a boundary yet
+        assertThat(chunker.append("Стоимость 3.")).isNull();
+        assertThat(chunker.append("5 тысячи. Ждем")).isEqualTo("Стоимость 3.5 тысячи.");
+    }
+
+    @Test
+    void newlineIsABoundary() {
+        SentenceChunker chunker = new SentenceChunker(5);
+
+        assertThat(chunker.append("Меню:\n- кофе")).isEqualTo("Меню:");
+        assertThat(chunker.drain()).isEqualTo("- кофе");
+    }
+
+    @Test
+    void questionExclamationAndEllipsisAreBoundaries() {
+        assertThat(new SentenceChunker(3).append("Правда? Да")).isEqualTo("Правда?");
+        assertThat(new SentenceChunker(3).append("Ура! Да")).isEqualTo("Ура!");
+        assertThat(new SentenceChunker(3).append("Хм… Да")).isEqualTo("Хм…");
+    }
+
+    @Test
+    void textKeepsEverythingAppended() {
+        SentenceChunker chunker = new SentenceChunker(5);
+        stream(chunker, "Первое. ", "Второе. ", "Третье");
+        chunker.drain();
+
+        assertThat(chunker.text()).isEqualTo("Первое. Второе. Третье");
+        assertThat(chunker.drain()).isEmpty();
+    }
+}
@@ -0,0 +1,91 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BpeTokenizerTest {
+
+    /**
+     * A vocabulary in tiktoken format: every single byte at its own value as
+     * rank, followed by the given merged tokens.
+     */
+    private static BpeTokenizer tokenizer(Map<String, Integer> merges) throws IOException {
+        StringBuilder vocabulary = new StringBuilder();
+        for (int b = 0; b < 256; b++) {
+            vocabulary.append(Base64.getEncoder().encodeToString(new byte[]{(byte) b})).append(' ').append(b).append('\n');
+        }
+        merges.forEach((token, rank) -> vocabulary
+                .append(Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8)))
+                .append(' ').append(rank).append('\n'));
+        return BpeTokenizer.load(new ByteArrayInputStream(vocabulary.toString().getBytes(StandardCharsets.US_ASCII)), "o200k_base");
+    }
+
+    private static Map<String, Integer> ranks(Object... tokenAndRank) {
+        Map<String, Integer> ranks = new LinkedHashMap<>();
+        for (int i = 0; i < tokenAndRank.length; i += 2) ranks.put((String) tokenAndRank[i], (Integer) tokenAndRank[i + 1]);
+        return ranks;
+    }
+
+    @Test
+    void wholePieceInTheVocabularyIsOneToken() throws IOException {
+        assertThat(tokenizer(ranks("hello", 256)).count("hello")).isEqualTo(1);
+    }
+
+    @Test
+    void unmergeablePieceCountsOneTokenPerByte() throws IOException {
+        BpeTokenizer tokenizer = tokenizer(Map.of());
+
+        assertThat(tokenizer.count("abcd")).isEqualTo(4);
+        // two-byte UTF-8 letters
+        assertThat(tokenizer.count("да")).isEqualTo(4);
+    }
+
+    @Test
+    void mergesTheLowestRankedPairFirst() throws IOException {
+        // "bc" goes first and leaves a, bc, d with no further merge
+        assertThat(tokenizer(ranks("bc", 256, "ab", 257, "cd", 258)).count("abcd")).isEqualTo(3);
+        // "ab" goes first, then "cd"
+        assertThat(tokenizer(ranks("ab", 256, "cd", 257, "bc", 258)).count("abcd")).isEqualTo(2);
+    }
+
+    @Test
+    void keepsMergingUntilNoPairIsInTheVocabulary() throws IOException {
+        BpeTokenizer tokenizer = tokenizer(ranks("lo", 256, "low", 257, "er", 258, "lower", 259));
+
+        assertThat(tokenizer.count("lower")).isEqualTo(1);
+        assertThat(tokenizer.count("lowest")).isEqualTo(4);
+    }
+
+    @Test
+    void countsEachPreTokenizedPieceSeparately() throws IOException {
+        BpeTokenizer tokenizer = tokenizer(ranks("ab", 256));
+
+        // "ab" and " ab" are separate pieces; the second merges to " " + "ab"
+        assertThat(tokenizer.count("ab ab")).isEqualTo(3);
+        // digits are split into groups of at most three
+        assertThat(tokenizer(ranks("123", 256)).count("123123")).isEqualTo(2);
+    }
+
+    @Test
+    void emptyTextHasNoTokens() throws IOException {
+        BpeTokenizer tokenizer = tokenizer(Map.of());
+
+        assertThat(tokenizer.count("")).isZero();
+        assertThat(tokenizer.count(null)).isZero();
+    }
+
+    @Test
+    void rejectsAnEmptyVocabulary() {
+        assertThatThrownBy(() -> BpeTokenizer.load(new ByteArrayInputStream(new byte[0]), "o200k_base"))
+                .isInstanceOf(IOException.class);
+    }
+}
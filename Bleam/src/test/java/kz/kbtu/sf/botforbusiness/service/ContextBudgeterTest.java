@@ -0,0 +1,97 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import kz.kbtu.sf.botforbusiness.model.SenderType;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextBudgeterTest {
+
+    // no vocabulary, so counts are TokenCounter.estimate
+    private final TokenCounter tokenCounter =
+            new TokenCounter(new ClassPathResource("tokenizer/missing.tiktoken"), "o200k_base", false, false, "unused", 1000);
+
+    private static ChatHistory history(int messages) {
+        List<SessionHistoryCache.Entry> entries = IntStream.range(0, messages)
+                .mapToObj(i -> SessionHistoryCache.Entry.replayed("c" + i, i % 2 == 0 ? SenderType.USER : SenderType.BOT,
+                        "message number " + i, LocalDateTime.now()))
+                .toList();
+        return new ChatHistory(null, entries);
+    }
+
+    private static String knowledge(int lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) text.append("knowledge line ").append(i).append('\n');
+        return text.toString();
+    }
+
+    @Test
+    void leavesAPromptThatFitsUntouched() {
+        ContextBudgeter budgeter = new ContextBudgeter(tokenCounter, 10_000, 0.4);
+        ChatHistory history = history(4);
+        String knowledge = knowledge(5);
+
+        ContextBudgeter.Fitted fitted = budgeter.fit("question", knowledge, history, true);
+
+        assertThat(fitted.trimmed()).isFalse();
+        assertThat(fitted.knowledge()).isSameAs(knowledge);
+        assertThat(fitted.history()).isSameAs(history);
+    }
+
+    @Test
+    void keepsTheNewestMessagesAndTheLeadingKnowledgeLines() {
+        ContextBudgeter budgeter = new ContextBudgeter(tokenCounter, 300, 0.4);
+        ChatHistory history = history(40);
+        String knowledge = knowledge(100);
+
+        ContextBudgeter.Fitted fitted = budgeter.fit("question", knowledge, history, true);
+
+        assertThat(fitted.trimmed()).isTrue();
+        assertThat(fitted.tokens()).isLessThanOrEqualTo(300 - tokenCounter.count("question"));
+        assertThat(knowledge).startsWith(fitted.knowledge());
+        assertThat(fitted.knowledge()).endsWith("\n");
+
+        List<SessionHistoryCache.Entry> kept = fitted.history().messages();
+        assertThat(kept).isNotEmpty().hasSizeLessThan(40);
+        assertThat(kept).isEqualTo(history.messages().subList(40 - kept.size(), 40));
+    }
+
+    @Test
+    void historyClaimsItsShareWhenTheKnowledgeAloneFillsTheRoom() {
+        ContextBudgeter budgeter = new ContextBudgeter(tokenCounter, 500, 0.4);
+        ChatHistory history = history(40);
+
+        ContextBudgeter.Fitted fitted = budgeter.fit("", knowledge(400), history, true);
+
+        int historyTokens = tokenCounter.count(fitted.history().render());
+        assertThat(historyTokens).isPositive().isLessThanOrEqualTo((int) ((500 - 16) * 0.4));
+    }
+
+    @Test
+    void keepsUntrimmableKnowledgeWholeAndCutsOnlyTheHistory() {
+        ContextBudgeter budgeter = new ContextBudgeter(tokenCounter, 300, 0.4);
+        String knowledge = knowledge(100);
+
+        ContextBudgeter.Fitted fitted = budgeter.fit("question", knowledge, history(40), false);
+
+        assertThat(fitted.trimmed()).isTrue();
+        assertThat(fitted.knowledge()).isSameAs(knowledge);
+        assertThat(fitted.history().messages()).hasSizeLessThan(40);
+    }
+
+    @Test
+    void dropsASummaryThatWouldTakeMoreThanHalfTheHistoryRoom() {
+        ContextBudgeter budgeter = new ContextBudgeter(tokenCounter, 200, 0.4);
+        ChatHistory history = new ChatHistory("summary ".repeat(200), history(10).messages());
+
+        ContextBudgeter.Fitted fitted = budgeter.fit("", "", history, true);
+
+        assertThat(fitted.history().hasSummary()).isFalse();
+        assertThat(fitted.history().messages()).isNotEmpty();
+    }
+}
@@ -0,0 +1,169 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+    private LlmScheduler scheduler;
+
+    @AfterEach
+    void stop() {
+        callers.shutdownNow();
+        if (scheduler != null) scheduler.stop();
+    }
+
+    private LlmScheduler scheduler(int maxConcurrent, double ratePerSec, double burst, int maxQueued, long maxWaitMs) {
+        scheduler = new LlmScheduler(meterRegistry, maxConcurrent, ratePerSec, burst, maxQueued, maxWaitMs, "");
+        return scheduler;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double queued() {
+        return meterRegistry.get("chat.llm.scheduler.queued").gauge().value();
+    }
+
+    /**
+     * One tenant floods the node with calls while another sends a few: the
+     * small tenant waits for about one slot to free up, not behind the backlog.
+     */
+    @Test
+    void burstOfOneTenantDoesNotDelayAnother() throws Exception {
+        LlmScheduler scheduler = scheduler(4, 1000, 1000, 1000, 30_000);
+        long callMs = 20;
+
+        List<Future<?>> noisy = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            noisy.add(callers.submit(() -> scheduler.run(1L, () -> {
+                sleep(callMs);
+                return null;
+            })));
+        }
+        // 200 calls on 4 slots: FIFO would put a newcomer about a second behind
+        while (queued() < 150) Thread.sleep(1);
+
+        long worstWaitMs = 0;
+        for (int i = 0; i < 10; i++) {
+            long calledAt = System.nanoTime();
+            long waitedMs = scheduler.run(2L, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - calledAt));
+            worstWaitMs = Math.max(worstWaitMs, waitedMs);
+            sleep(callMs);
+        }
+        assertThat(queued()).as("the flood was still queued while the small tenant was served").isPositive();
+
+        for (Future<?> call : noisy) call.get(10, TimeUnit.SECONDS);
+        assertThat(worstWaitMs).isLessThan(10 * callMs);
+    }
+
+    @Test
+    void neverRunsMoreThanMaxConcurrentCalls() throws Exception {
+        LlmScheduler scheduler = scheduler(3, 1000, 1000, 1000, 30_000);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        List<Future<?>> calls = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            long tenant = i % 4;
+            calls.add(callers.submit(() -> scheduler.run(tenant, () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(5);
+                return running.decrementAndGet();
+            })));
+        }
+        for (Future<?> call : calls) call.get(10, TimeUnit.SECONDS);
+
+        assertThat(peak.get()).isEqualTo(3);
+    }
+
+    @Test
+    void tokenBucketLimitsTheRateAfterTheBurst() {
+        // two calls at once, then one every 100 ms
+        LlmScheduler scheduler = scheduler(8, 10, 2, 100, 5_000);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 4; i++) scheduler.run(1L, () -> null);
+        long limitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long otherStart = System.nanoTime();
+        scheduler.run(2L, () -> null);
+        long otherMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - otherStart);
+
+        assertThat(limitedMs).isGreaterThanOrEqualTo(180);
+        assertThat(otherMs).isLessThan(50);
+    }
+
+    @Test
+    void rejectsCallsBeyondTheTenantQueueLimit() throws Exception {
+        LlmScheduler scheduler = scheduler(1, 1000, 1000, 1, 5_000);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+
+        Future<?> first = callers.submit(() -> scheduler.run(1L, () -> {
+            running.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        running.await(5, TimeUnit.SECONDS);
+        Future<?> second = callers.submit(() -> scheduler.run(1L, () -> null));
+        while (queued() < 1) Thread.sleep(1);
+
+        assertThatThrownBy(() -> scheduler.run(1L, () -> null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("too many");
+        assertThat(meterRegistry.counter("chat.llm.scheduler.rejected", "reason", "queue-full").count()).isEqualTo(1);
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void callThatWaitsTooLongFailsAndFreesItsPlace() throws Exception {
+        LlmScheduler scheduler = scheduler(1, 1000, 1000, 10, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+
+        Future<?> blocker = callers.submit(() -> scheduler.run(1L, () -> {
+            running.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        running.await(5, TimeUnit.SECONDS);
+
+        assertThatThrownBy(() -> scheduler.run(2L, () -> null)).isInstanceOf(IllegalStateException.class);
+        assertThat(meterRegistry.counter("chat.llm.scheduler.rejected", "reason", "timeout").count()).isEqualTo(1);
+        assertThat(queued()).isZero();
+
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        assertThat(scheduler.run(2L, () -> "admitted")).isEqualTo("admitted");
+    }
+}
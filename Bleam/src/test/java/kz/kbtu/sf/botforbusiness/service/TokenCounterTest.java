@@ -0,0 +1,64 @@
+package kz.kbtu.sf.botforbusiness.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenCounterTest {
+
+    private static TokenCounter counter(Resource vocabulary, boolean requireExact) {
+        return new TokenCounter(vocabulary, "o200k_base", requireExact, false, "unused", 1000);
+    }
+
+    private static Resource missing() {
+        return new ClassPathResource("tokenizer/missing.tiktoken");
+    }
+
+    @Test
+    void estimatesCyrillicHigherThanLatin() {
+        assertThat(TokenCounter.estimate("abcdefgh")).isEqualTo(2);
+        assertThat(TokenCounter.estimate("абвгдежз")).isEqualTo(4);
+        assertThat(TokenCounter.estimate("!?")).isEqualTo(2);
+        assertThat(TokenCounter.estimate("a")).isEqualTo(1);
+    }
+
+    @Test
+    void fallsBackToTheEstimateWithoutAVocabulary() {
+        TokenCounter counter = counter(missing(), false);
+
+        assertThat(counter.isExact()).isFalse();
+        assertThat(counter.count("абвгдежз")).isEqualTo(4);
+        assertThat(counter.count("")).isZero();
+        assertThat(counter.count(null)).isZero();
+    }
+
+    @Test
+    void refusesToStartWithoutAVocabularyWhenExactCountsAreRequired() {
+        assertThatThrownBy(() -> counter(missing(), true)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void countsExactlyWithAVocabulary() {
+        StringBuilder vocabulary = new StringBuilder();
+        for (int b = 0; b < 256; b++) {
+            vocabulary.append(Base64.getEncoder().encodeToString(new byte[]{(byte) b})).append(' ').append(b).append('\n');
+        }
+        TokenCounter counter = counter(new ByteArrayResource(vocabulary.toString().getBytes(StandardCharsets.US_ASCII)), true);
+
+        assertThat(counter.isExact()).isTrue();
+        assertThat(counter.count("abcdefgh")).isEqualTo(8);
+    }
+
+    @Test
+    void hashesLikeSha256sum() {
+        assertThat(TokenCounter.sha256("abc".getBytes(StandardCharsets.US_ASCII)))
+                .isEqualTo("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    }
+}